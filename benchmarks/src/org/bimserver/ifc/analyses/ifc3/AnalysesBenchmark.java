@@ -0,0 +1,64 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bimserver.bimbots.BimBotsException;
+import org.bimserver.bimbots.BimBotsInput;
+import org.bimserver.plugins.PluginConfiguration;
+import org.bimserver.plugins.SchemaName;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A complete run of a service over the generated model, from the BimBots
+ * input to the serialized output, without the result cache. The default
+ * modules, with or without the breakdown, gives what the breakdown adds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class AnalysesBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean detailed;
+
+	@Param({ "JSON", "SMILE", "NDJSON" })
+	public OutputMode outputMode;
+
+	@Param({ "false", "true" })
+	public boolean breakdown;
+
+	private AbstractAnalysesService service;
+	private PluginConfiguration configuration;
+	private BimBotsInput input;
+
+	@Setup
+	public void setUp(StandInModelState state) {
+		service = detailed ? new AnalysesServiceDetailed() : new AnalysesService();
+		Map<String, Object> settings = new HashMap<>();
+		settings.put(AnalysesConfiguration.OUTPUT_MODE, outputMode.name());
+		settings.put(AnalysisModule.BREAKDOWN.getIdentifier(), breakdown);
+		configuration = AnalysesConfiguration.createPluginConfiguration(settings);
+		input = new BimBotsInput(SchemaName.IFC_STEP_2X3TC1, null);
+		input.setIfcModel(state.model);
+	}
+
+	@Benchmark
+	public byte[] run() throws BimBotsException {
+		return service.runBimBot(input, null, configuration).getData();
+	}
+}
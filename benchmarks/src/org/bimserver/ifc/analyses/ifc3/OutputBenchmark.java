@@ -0,0 +1,75 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Encoding and decoding of the detailed results as JSON and as Smile. The
+ * size of the output is reported as the "bytes" counter of encode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class OutputBenchmark {
+
+	@Param({ "JSON", "SMILE" })
+	public OutputMode outputMode;
+
+	private AnalysesConfiguration configuration;
+	private AnalysesServiceDetailed service;
+	private Analysis analysis;
+	private ObjectMapper objectMapper;
+	private byte[] data;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Size {
+		public long bytes;
+	}
+
+	@Setup
+	public void setUp(StandInModelState model) {
+		Map<String, Object> settings = new HashMap<>();
+		settings.put(AnalysesConfiguration.OUTPUT_MODE, outputMode.name());
+		configuration = new AnalysesConfiguration(AnalysesConfiguration.createPluginConfiguration(settings));
+		service = new AnalysesServiceDetailed();
+		analysis = new Analysis(true, configuration);
+		analysis.run(model.model);
+		objectMapper = outputMode == OutputMode.SMILE ? new ObjectMapper(new SmileFactory()) : new ObjectMapper();
+		data = service.write(analysis, configuration);
+	}
+
+	@Benchmark
+	public byte[] encode(Size size) {
+		byte[] output = service.write(analysis, configuration);
+		size.bytes = output.length;
+		return output;
+	}
+
+	@Benchmark
+	public JsonNode decode() throws IOException {
+		return objectMapper.readTree(data);
+	}
+}
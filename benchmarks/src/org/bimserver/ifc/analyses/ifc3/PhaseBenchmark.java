@@ -0,0 +1,90 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The phases of {@link AnalysisMetrics} one at a time: the enumeration of the
+ * products, the products phase with a single module switched on, and the
+ * serialization of a finished detailed analysis.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class PhaseBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class ModuleState {
+
+		@Param({ "TRIANGLES", "VOODOO", "CLASSIFICATIONS", "PROXIES", "COVERAGE", "BREAKDOWN", "DISTRIBUTION", "DUPLICATES" })
+		public AnalysisModule module;
+
+		private AnalysesConfiguration configuration;
+
+		@Setup
+		public void setUp() {
+			Map<String, Object> settings = new HashMap<>();
+			for (AnalysisModule other : AnalysisModule.values()) {
+				// Coverage is only indexed together with the classifications
+				settings.put(other.getIdentifier(), other == module || (module == AnalysisModule.COVERAGE && other == AnalysisModule.CLASSIFICATIONS));
+			}
+			settings.put(AnalysesConfiguration.TOP_K, 0);
+			configuration = new AnalysesConfiguration(AnalysesConfiguration.createPluginConfiguration(settings));
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class OutputState {
+
+		@Param({ "JSON", "SMILE", "NDJSON" })
+		public OutputMode outputMode;
+
+		private AnalysesConfiguration configuration;
+		private AnalysesServiceDetailed service;
+		private Analysis analysis;
+
+		@Setup
+		public void setUp(StandInModelState model) {
+			Map<String, Object> settings = new HashMap<>();
+			settings.put(AnalysesConfiguration.OUTPUT_MODE, outputMode.name());
+			configuration = new AnalysesConfiguration(AnalysesConfiguration.createPluginConfiguration(settings));
+			service = new AnalysesServiceDetailed();
+			analysis = new Analysis(true, configuration);
+			analysis.run(model.model);
+		}
+	}
+
+	@Benchmark
+	public List<IfcProduct> enumeration(StandInModelState model) {
+		return model.model.getAllWithSubTypes(IfcProduct.class);
+	}
+
+	@Benchmark
+	public Analysis products(StandInModelState model, ModuleState module) {
+		Analysis analysis = new Analysis(true, module.configuration);
+		analysis.run(model.model);
+		return analysis;
+	}
+
+	@Benchmark
+	public byte[] serialization(OutputState output) {
+		return output.service.write(output.analysis, output.configuration);
+	}
+}
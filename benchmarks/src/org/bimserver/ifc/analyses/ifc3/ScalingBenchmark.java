@@ -0,0 +1,52 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.util.concurrent.TimeUnit;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A detailed analysis of a model and of a model with four times the products,
+ * without geometry and with many voodoo and classified products. The passes
+ * that kept their objects in lists guarded by contains() took 16 times as long
+ * on the larger model, a linear analysis takes 4 to 6 times as long, the
+ * larger heap and caches included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class ScalingBenchmark {
+
+	@Param({ "125000", "500000" })
+	public int products;
+
+	private IfcModelInterface model;
+	private AnalysesConfiguration configuration;
+
+	@Setup(Level.Trial)
+	public void createModel() {
+		model = new StandInModel().setProducts(products).setGeometryShare(0).setVoodooShare(0.5).setClassificationDensity(0.9).create();
+		configuration = new AnalysesConfiguration(null);
+	}
+
+	@Benchmark
+	public Analysis detailed() {
+		Analysis analysis = new Analysis(true, configuration);
+		analysis.run(model);
+		return analysis;
+	}
+}
@@ -0,0 +1,40 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The generated model the benchmarks run on, made once per trial from the
+ * {@link StandInModel} settings, which can be changed with -p, for example
+ * -p products=500000 -p geometryShare=0.
+ */
+@State(Scope.Benchmark)
+public class StandInModelState {
+
+	@Param("100000")
+	public int products;
+
+	@Param("3")
+	public int psetFanOut;
+
+	@Param("0.2")
+	public double voodooShare;
+
+	@Param("0.5")
+	public double classificationDensity;
+
+	@Param("0.8")
+	public double geometryShare;
+
+	public IfcModelInterface model;
+
+	@Setup(Level.Trial)
+	public void createModel() {
+		model = new StandInModel().setProducts(products).setPsetFanOut(psetFanOut).setVoodooShare(voodooShare).setClassificationDensity(classificationDensity)
+				.setGeometryShare(geometryShare).create();
+	}
+}
@@ -0,0 +1,762 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.bimbots.BimBotContext;
+import org.bimserver.bimbots.BimBotDefaultErrorCode;
+import org.bimserver.bimbots.BimBotsException;
+import org.bimserver.bimbots.BimBotsInput;
+import org.bimserver.bimbots.BimBotsOutput;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.interfaces.objects.SObjectType;
+import org.bimserver.interfaces.objects.SRevisionSummaryContainer;
+import org.bimserver.interfaces.objects.SRevisionSummaryType;
+import org.bimserver.models.store.ObjectDefinition;
+import org.bimserver.plugins.PluginConfiguration;
+import org.bimserver.plugins.PluginContext;
+import org.bimserver.plugins.SchemaName;
+import org.bimserver.plugins.services.BimBotAbstractService;
+import org.bimserver.plugins.services.BimServerClientInterface;
+import org.bimserver.shared.exceptions.PluginException;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Runs the shared {@link Analysis} over the input model; subclasses only
+ * decide how the results are rendered. The results are streamed with a
+ * {@link JsonGenerator} into one byte buffer, no JSON tree or String is built
+ * in between. The same generator calls write JSON or Smile.
+ */
+public abstract class AbstractAnalysesService extends BimBotAbstractService {
+
+	protected static final JsonFactory JSON_FACTORY = new JsonFactory();
+	private static final JsonFactory SMILE_FACTORY = new SmileFactory();
+	private static final SerializedString LINE_SEPARATOR = new SerializedString("\n");
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AbstractAnalysesService.class);
+	// The revision of the run on the current thread, see newRevision
+	private static final ThreadLocal<ModelRevision> REVISION = new ThreadLocal<>();
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper(JSON_FACTORY);
+
+	private final AnalysisCache cache = new AnalysisCache();
+	private final AnalysesMonitor monitor = new AnalysesMonitor(cache);
+	private volatile ModelSource modelSource = ModelSource.QUERY;
+	private volatile Path deltaDirectory;
+
+	/**
+	 * Also registers the MXBean of the {@link AnalysesMonitor}, which is
+	 * unregistered when the plugin bundle is closed on uninstall or update.
+	 */
+	@Override
+	public void init(PluginContext pluginContext, PluginConfiguration systemSettings) throws PluginException {
+		super.init(pluginContext, systemSettings);
+		configure(systemSettings);
+		monitor.register(getClass().getSimpleName());
+		if (pluginContext.getPluginBundle() != null) {
+			pluginContext.getPluginBundle().addCloseable(monitor::unregister);
+		}
+	}
+
+	/**
+	 * Sizes the result cache and sets the delta directory from the system
+	 * settings, also used when the service runs without a BIMserver.
+	 */
+	public void configure(PluginConfiguration systemSettings) {
+		AnalysesConfiguration.configureCache(cache, systemSettings, getClass().getSimpleName());
+		deltaDirectory = AnalysesConfiguration.getDeltaDirectory(systemSettings);
+	}
+
+	/**
+	 * Remembers the project and revision while BIMserver runs the service for
+	 * a new revision, so the results and product state can be keyed by them.
+	 * When the model source only loads the queried subset, the number of
+	 * objects of the revision is taken from its summary.
+	 */
+	@Override
+	public void newRevision(RunningService runningService, BimServerClientInterface bimServerClientInterface, long poid, long roid, String userToken, long soid,
+			SObjectType settings) throws Exception {
+		long parentRoid = 0;
+		try {
+			List<Long> revisions = bimServerClientInterface.getServiceInterface().getProjectByPoid(poid).getRevisions();
+			int index = revisions.indexOf(roid);
+			parentRoid = index > 0 ? revisions.get(index - 1) : 0;
+		} catch (Exception e) {
+			LOGGER.warn("Could not find the revision before " + roid + " of project " + poid, e);
+		}
+		long totalObjects = -1;
+		if (!modelSource.requiresCompleteModel()) {
+			try {
+				totalObjects = 0;
+				for (SRevisionSummaryContainer container : bimServerClientInterface.getServiceInterface().getRevisionSummary(roid).getList()) {
+					for (SRevisionSummaryType type : container.getTypes()) {
+						totalObjects += type.getCount() == null ? 0 : type.getCount();
+					}
+				}
+			} catch (Exception e) {
+				LOGGER.warn("Could not count the objects of revision " + roid + ", reporting the loaded objects", e);
+				totalObjects = -1;
+			}
+		}
+		REVISION.set(new ModelRevision(poid, roid, parentRoid, totalObjects));
+		try {
+			super.newRevision(runningService, bimServerClientInterface, poid, roid, userToken, soid, settings);
+		} finally {
+			REVISION.remove();
+		}
+	}
+
+	@Override
+	public BimBotsOutput runBimBot(BimBotsInput input, BimBotContext bimBotContext, PluginConfiguration pluginConfiguration) throws BimBotsException {
+		return runBimBot(input, pluginConfiguration, REVISION.get());
+	}
+
+	/**
+	 * @param revision
+	 *            the revision of the input model, or null when it is not known
+	 */
+	BimBotsOutput runBimBot(BimBotsInput input, PluginConfiguration pluginConfiguration, ModelRevision revision) throws BimBotsException {
+		LOGGER.debug("Starting " + getTitle());
+
+		AnalysesConfiguration configuration;
+		try {
+			configuration = new AnalysesConfiguration(pluginConfiguration);
+		} catch (IllegalArgumentException e) {
+			throw new BimBotsException(e.getMessage(), BimBotDefaultErrorCode.INVALID_CONFIGURATION);
+		}
+		monitor.countRun();
+		// Results with metrics are not cached, the metrics would not be of the run that returns them. Neither are estimates within a time budget
+		String analysisKey = cache.isEnabled() && !configuration.isIncludeMetrics() && configuration.getSampleTime() == 0 ? getAnalysisKey(input, revision, configuration) : null;
+		String cacheKey = analysisKey == null ? null : analysisKey + "/" + configuration.getOutputKey();
+		// Cached NDJSON output has all records, so every page is cut from it without analysing again
+		boolean paged = cacheKey != null && configuration.getOutputMode() == OutputMode.NDJSON;
+
+		byte[] json = cacheKey == null ? null : cache.get(cacheKey, configuration.getOutputMode());
+		if (json != null) {
+			LOGGER.debug("Using cached result ({} hits, {} disk hits, {} misses)", cache.getHits(), cache.getDiskHits(), cache.getMisses());
+		} else {
+			Analysis analysis = analyse(input, revision, configuration);
+			json = paged ? write(analysis, configuration, 0, 0) : write(analysis, configuration);
+			monitor.add(analysis.getMetrics());
+			if (cacheKey != null) {
+				cache.put(cacheKey, configuration.getOutputMode(), json);
+			}
+		}
+		if (paged) {
+			json = page(json, configuration.getDetailOffset(), configuration.getDetailLimit());
+		}
+		if (LOGGER.isDebugEnabled() && configuration.getOutputMode().isText()) {
+			LOGGER.debug("Adding text to extended data : " + new String(json, StandardCharsets.UTF_8));
+		}
+		BimBotsOutput output = new BimBotsOutput(configuration.getOutputMode().getSchemaName(), json);
+
+		output.setTitle(getTitle());
+		output.setContentType(configuration.getOutputMode().getContentType());
+		return output;
+	}
+
+	private Analysis analyse(BimBotsInput input, ModelRevision revision, AnalysesConfiguration configuration) throws BimBotsException {
+		ObjectNode query = AnalysisQuery.create(configuration);
+		LOGGER.debug("Loading model with query {}", query);
+		IfcModelInterface model = modelSource.load(input, query);
+
+		Analysis analysis = new Analysis(isDetailed(), configuration);
+		if (revision != null && !modelSource.requiresCompleteModel()) {
+			analysis.setRevisionObjects(revision.getTotalObjects());
+		}
+		if (configuration.isSampling()) {
+			analysis.estimate(model);
+		} else if (deltaDirectory == null) {
+			analysis.run(model);
+		} else if (revision == null) {
+			LOGGER.debug("No project and revision to key the product state by, analysing all products");
+			analysis.run(model);
+		} else {
+			runIncremental(analysis, model, revision, configuration, deltaDirectory);
+		}
+		return analysis;
+	}
+
+	/**
+	 * Replays the products from the state of the project, when that state was
+	 * made from the revision before this one, or from this revision itself.
+	 * The state is then replaced by the state of this revision. State files are
+	 * only read and written directly in the delta directory.
+	 */
+	private void runIncremental(Analysis analysis, IfcModelInterface model, ModelRevision revision, AnalysesConfiguration configuration, Path deltaDirectory) {
+		Path stateFile = deltaDirectory.resolve(getClass().getSimpleName() + "-" + revision.getPoid() + ".state").normalize();
+		if (!deltaDirectory.equals(stateFile.getParent())) {
+			LOGGER.warn("Product state " + stateFile + " is not in " + deltaDirectory + ", analysing all products");
+			analysis.run(model);
+			return;
+		}
+		ProductState previousState = null;
+		try {
+			previousState = ProductState.read(stateFile, configuration.getResultKey());
+		} catch (IOException e) {
+			LOGGER.warn("Could not read product state " + stateFile + ", analysing all products", e);
+		}
+		if (previousState != null && previousState.getRevision() != revision.getParentRoid() && previousState.getRevision() != revision.getRoid()) {
+			LOGGER.debug("Product state of revision {} does not precede revision {}, analysing all products", previousState.getRevision(), revision.getRoid());
+			previousState = null;
+		}
+		ProductState state = analysis.runIncremental(model, previousState);
+		state.setRevision(revision.getRoid());
+		LOGGER.debug("Replayed {} of {} products from the previous revision", analysis.getReusedCount(), analysis.getProductCount());
+		try {
+			state.write(stateFile);
+		} catch (IOException e) {
+			LOGGER.warn("Could not write product state " + stateFile, e);
+		}
+	}
+
+	/**
+	 * @return the key of the results of this service for the input revision and
+	 *         the settings that change the results, without the settings that
+	 *         only change how they are written, or null when the input revision
+	 *         cannot be identified
+	 */
+	private String getAnalysisKey(BimBotsInput input, ModelRevision revision, AnalysesConfiguration configuration) {
+		String key = null;
+		if (revision != null) {
+			key = "revision:" + revision.getRoid();
+		} else if (input.getData() != null && input.getData().length > 0) {
+			key = "data:" + AnalysisCache.sha256(input.getData());
+		}
+		return key == null ? null : getClass().getName() + "/" + key + "/" + configuration.getResultKey();
+	}
+
+	/**
+	 * @param modelSource
+	 *            the source of the models to analyse, by default
+	 *            {@link ModelSource#QUERY}
+	 */
+	public void setModelSource(ModelSource modelSource) {
+		this.modelSource = modelSource;
+	}
+
+	/**
+	 * Lets BIMserver hand over an empty model of the revision when the model
+	 * source only loads the queried subset.
+	 */
+	@Override
+	public boolean preloadCompleteModel() {
+		return modelSource.requiresCompleteModel();
+	}
+
+	public AnalysisCache getCache() {
+		return cache;
+	}
+
+	public AnalysesMonitor getMonitor() {
+		return monitor;
+	}
+
+	/**
+	 * Renders the results once into a {@link ByteArrayBuilder}, which grows by
+	 * adding segments instead of copying what was written, and returns its
+	 * contents. The serialization metrics do not include the "_metrics" that
+	 * are written after them.
+	 */
+	byte[] write(Analysis analysis, AnalysesConfiguration configuration) {
+		return write(analysis, configuration, configuration.getDetailOffset(), configuration.getDetailLimit());
+	}
+
+	/**
+	 * @param offset
+	 *            the first record of the NDJSON output
+	 * @param limit
+	 *            the maximum number of records of the NDJSON output, 0 for all
+	 */
+	private byte[] write(Analysis analysis, AnalysesConfiguration configuration, long offset, long limit) {
+		long startTime = System.nanoTime();
+		long startAllocated = AnalysisMetrics.getAllocatedBytes();
+		JsonFactory factory = configuration.getOutputMode() == OutputMode.SMILE ? SMILE_FACTORY : JSON_FACTORY;
+		ByteArrayBuilder output = new ByteArrayBuilder();
+		try (JsonGenerator generator = factory.createGenerator(output, JsonEncoding.UTF8)) {
+			if (configuration.getOutputMode() == OutputMode.NDJSON) {
+				writeLines(analysis, generator, offset, limit);
+			} else {
+				generator.writeStartObject();
+				if (analysis.getEstimator() != null) {
+					generator.writeBooleanField("estimated", true);
+				}
+				generator.writeArrayFieldStart("results");
+				writeResults(analysis, generator, true);
+				generator.writeEndArray();
+			}
+			generator.flush();
+			analysis.getMetrics().add(AnalysisMetrics.SERIALIZATION, System.nanoTime() - startTime, output.size(), AnalysisMetrics.getAllocatedBytes() - startAllocated);
+			if (configuration.getOutputMode() == OutputMode.NDJSON) {
+				if (configuration.isIncludeMetrics()) {
+					generator.writeStartObject();
+					generator.writeFieldName("_metrics");
+					analysis.getMetrics().write(generator);
+					generator.writeEndObject();
+				}
+				generator.writeRaw('\n');
+			} else {
+				if (configuration.isIncludeMetrics()) {
+					generator.writeFieldName("_metrics");
+					analysis.getMetrics().write(generator);
+				}
+				generator.writeEndObject();
+			}
+		} catch (IOException e) {
+			// Cannot happen when writing to memory
+			throw new UncheckedIOException(e);
+		}
+		return output.toByteArray();
+	}
+
+	/**
+	 * Writes the summary line, with the "results" without the per object lists
+	 * and the position of the page, followed by the records of the page.
+	 */
+	private void writeLines(Analysis analysis, JsonGenerator generator, long offset, long limit) throws IOException {
+		generator.setRootValueSeparator(LINE_SEPARATOR);
+		long records = getRecordCount(analysis);
+		long start = Math.min(offset, records);
+		long end = limit == 0 ? records : Math.min(records, start + limit);
+
+		generator.writeStartObject();
+		if (analysis.getEstimator() != null) {
+			generator.writeBooleanField("estimated", true);
+		}
+		generator.writeArrayFieldStart("results");
+		writeResults(analysis, generator, false);
+		generator.writeEndArray();
+		generator.writeNumberField("records", records);
+		generator.writeNumberField("offset", start);
+		if (end < records) {
+			generator.writeNumberField("nextOffset", end);
+		}
+		generator.writeEndObject();
+
+		writeRecords(analysis, new RecordWriter(generator, start, end));
+	}
+
+	/**
+	 * Cuts a page from NDJSON output with all records, written without
+	 * metrics: the summary line gets the position of the page, the record
+	 * lines of the page are copied as they are. Every line ends with a line
+	 * feed, which does not occur inside a UTF-8 encoded JSON line.
+	 */
+	static byte[] page(byte[] lines, long offset, long limit) {
+		int summaryEnd = nextLine(lines, 0);
+		try {
+			ObjectNode summary = (ObjectNode) OBJECT_MAPPER.readTree(new ByteArrayInputStream(lines, 0, summaryEnd - 1));
+			long records = summary.get("records").asLong();
+			long start = Math.min(offset, records);
+			long end = limit == 0 ? records : Math.min(records, start + limit);
+			summary.put("offset", start);
+			if (end < records) {
+				summary.put("nextOffset", end);
+			}
+			int from = summaryEnd;
+			for (long record = 0; record < start; record++) {
+				from = nextLine(lines, from);
+			}
+			int to = from;
+			for (long record = start; record < end; record++) {
+				to = nextLine(lines, to);
+			}
+			ByteArrayBuilder output = new ByteArrayBuilder(to - from + summaryEnd + 32);
+			OBJECT_MAPPER.writeValue(output, summary);
+			output.append('\n');
+			output.write(lines, from, to - from);
+			return output.toByteArray();
+		} catch (IOException e) {
+			// Cannot happen when reading and writing memory
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return the position after the line feed that ends the line at position
+	 */
+	private static int nextLine(byte[] lines, int position) {
+		while (lines[position] != '\n') {
+			position++;
+		}
+		return position + 1;
+	}
+
+	@Override
+	public String getOutputSchema() {
+		return SchemaName.UNSTRUCTURED_UTF8_TEXT_1_0.name();
+	}
+
+	/**
+	 * @return the schemas of all output modes, the output mode setting selects
+	 *         one of them
+	 */
+	@Override
+	public Set<String> getAvailableOutputs() {
+		Set<String> outputs = new LinkedHashSet<>();
+		for (OutputMode outputMode : OutputMode.values()) {
+			outputs.add(outputMode.getSchemaName());
+		}
+		return outputs;
+	}
+
+	@Override
+	public ObjectDefinition getUserSettingsDefinition() {
+		return AnalysesConfiguration.createSettingsDefinition();
+	}
+
+	@Override
+	public ObjectDefinition getSystemSettingsDefinition() {
+		return AnalysesConfiguration.createSystemSettingsDefinition();
+	}
+
+	protected abstract boolean isDetailed();
+
+	protected abstract String getTitle();
+
+	/**
+	 * Writes the entries of the "results" array.
+	 * 
+	 * @param includeObjects
+	 *            whether the per object lists are written, they are written
+	 *            as separate records by {@link #writeRecords} otherwise
+	 */
+	protected abstract void writeResults(Analysis analysis, JsonGenerator generator, boolean includeObjects) throws IOException;
+
+	/**
+	 * @return the number of records {@link #writeRecords} passes to the
+	 *         {@link RecordWriter}
+	 */
+	protected long getRecordCount(Analysis analysis) {
+		return 0;
+	}
+
+	/**
+	 * Passes the objects of the per object lists to the writer, in the order
+	 * they have in the JSON output.
+	 */
+	protected void writeRecords(Analysis analysis, RecordWriter writer) throws IOException {
+	}
+
+	protected void writeTotal(JsonGenerator generator, String name, long value) throws IOException {
+		generator.writeStartObject();
+		generator.writeNumberField(name, value);
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Writes the sample size, the number of strata and of covered strata, and
+	 * the estimated totals, each with its 95% confidence interval as "ci95":
+	 * [low, high] when every stratum is covered.
+	 */
+	protected void writeEstimates(JsonGenerator generator, SampleEstimator estimator) throws IOException {
+		generator.writeStartObject();
+		generator.writeNumberField("Sampled products", estimator.getSampled());
+		generator.writeNumberField("Strata", estimator.getStrata());
+		generator.writeNumberField("Strata covered", estimator.getStrataCovered());
+		generator.writeBooleanField("Complete", estimator.isComplete());
+		generator.writeEndObject();
+		if (estimator.hasTriangles()) {
+			writeEstimate(generator, "triangles", estimator.getTriangles());
+			writeEstimate(generator, "triangles_per_m3", estimator.getTrianglesPerM3());
+		}
+		if (estimator.hasVoodoo()) {
+			writeEstimate(generator, "Voodoo share", estimator.getVoodooShare());
+		}
+		if (estimator.hasClassifications()) {
+			writeEstimate(generator, "Classification coverage", estimator.getClassificationCoverage());
+		}
+		LOGGER.debug("Estimated from {} of {} products", estimator.getSampled(), estimator.getProductCount());
+	}
+
+	private void writeEstimate(JsonGenerator generator, String name, SampleEstimator.Estimate estimate) throws IOException {
+		generator.writeStartObject();
+		generator.writeNumberField(name, estimate.getValue());
+		if (estimate.hasInterval()) {
+			generator.writeArrayFieldStart("ci95");
+			generator.writeNumber(estimate.getLow());
+			generator.writeNumber(estimate.getHigh());
+			generator.writeEndArray();
+		}
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Writes the products without classification, the classified products
+	 * with voodoo property sets or properties when the voodoo module is on,
+	 * and the number of products and classified products per IFC type. Writes
+	 * nothing when the classifications are not indexed.
+	 */
+	protected void writeCoverage(JsonGenerator generator, Analysis analysis) throws IOException {
+		ClassificationAccumulator classifications = analysis.getClassifications();
+		ClassificationIndex index = classifications == null ? null : classifications.getIndex();
+		if (index == null) {
+			return;
+		}
+		RoaringBitmap classified = index.getClassified();
+		writeTotal(generator, "Number of products without classification", index.getUnclassified().getCardinality());
+		if (analysis.getPropertySets() != null) {
+			writeTotal(generator, "Number of classified products with voodoo properties", RoaringBitmap.andCardinality(index.getVoodoo(), classified));
+		}
+
+		Map<String, Integer> products = index.countByType(index.getAll());
+		Map<String, Integer> classifiedProducts = index.countByType(classified);
+		generator.writeStartObject();
+		generator.writeArrayFieldStart("Classification coverage");
+		for (Map.Entry<String, Integer> type : products.entrySet()) {
+			Integer classifiedCount = classifiedProducts.get(type.getKey());
+			generator.writeStartObject();
+			generator.writeStringField("Type", type.getKey());
+			generator.writeNumberField("Products", type.getValue());
+			generator.writeNumberField("Classified", classifiedCount == null ? 0 : classifiedCount);
+			generator.writeEndObject();
+		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Writes the breakdown per IFC type and per storey as tables with a
+	 * "columns" and a "rows" array. Types are sorted by name, storeys by
+	 * elevation with the products without storey last. Triangles and volume
+	 * are only written when the triangles module is on, the voodoo ratio only
+	 * when the voodoo module is on.
+	 */
+	protected void writeBreakdown(JsonGenerator generator, Analysis analysis) throws IOException {
+		BreakdownAccumulator breakdown = analysis.getBreakdown();
+		if (breakdown == null) {
+			return;
+		}
+		boolean triangles = analysis.getGeometry() != null && analysis.getGeometry().isTotals();
+		boolean voodoo = analysis.getPropertySets() != null;
+
+		BreakdownTable byType = breakdown.getByType();
+		List<Integer> types = new ArrayList<>();
+		for (int type = 0; type < byType.size(); type++) {
+			if (byType.getProducts(type) > 0) {
+				types.add(type);
+			}
+		}
+		types.sort(Comparator.comparing(breakdown::getTypeName));
+		generator.writeStartObject();
+		generator.writeObjectFieldStart("Breakdown by type");
+		writeBreakdownColumns(generator, new String[] { "Type" }, triangles, voodoo);
+		generator.writeArrayFieldStart("rows");
+		for (int type : types) {
+			generator.writeStartArray();
+			generator.writeString(breakdown.getTypeName(type));
+			writeBreakdownRow(generator, byType, type, triangles, voodoo);
+			generator.writeEndArray();
+		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+		generator.writeEndObject();
+
+		StoreyIndex storeys = breakdown.getStoreys();
+		BreakdownTable byStorey = breakdown.getByStorey();
+		List<Integer> storeyIndexes = new ArrayList<>();
+		for (int storey = StoreyIndex.NO_STOREY + 1; storey < storeys.size(); storey++) {
+			storeyIndexes.add(storey);
+		}
+		storeyIndexes.sort(Comparator.<Integer> comparingDouble(storeys::getElevation).thenComparing(storeys::getName, Comparator.nullsFirst(Comparator.naturalOrder())));
+		if (byStorey.getProducts(StoreyIndex.NO_STOREY) > 0) {
+			storeyIndexes.add(StoreyIndex.NO_STOREY);
+		}
+		generator.writeStartObject();
+		generator.writeObjectFieldStart("Breakdown by storey");
+		writeBreakdownColumns(generator, new String[] { "Storey", "Oid", "Elevation" }, triangles, voodoo);
+		generator.writeArrayFieldStart("rows");
+		for (int storey : storeyIndexes) {
+			generator.writeStartArray();
+			if (storey == StoreyIndex.NO_STOREY) {
+				generator.writeNull();
+				generator.writeNull();
+				generator.writeNull();
+			} else {
+				generator.writeString(storeys.getName(storey));
+				generator.writeNumber(storeys.getOid(storey));
+				generator.writeNumber(storeys.getElevation(storey));
+			}
+			writeBreakdownRow(generator, byStorey, storey, triangles, voodoo);
+			generator.writeEndArray();
+		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+		generator.writeEndObject();
+	}
+
+	private void writeBreakdownColumns(JsonGenerator generator, String[] keyColumns, boolean triangles, boolean voodoo) throws IOException {
+		generator.writeArrayFieldStart("columns");
+		for (String column : keyColumns) {
+			generator.writeString(column);
+		}
+		generator.writeString("Products");
+		if (triangles) {
+			generator.writeString("Triangles");
+			generator.writeString("m3");
+		}
+		generator.writeString("Proxies");
+		if (voodoo) {
+			generator.writeString("Voodoo ratio");
+		}
+		generator.writeEndArray();
+	}
+
+	private void writeBreakdownRow(JsonGenerator generator, BreakdownTable table, int bucket, boolean triangles, boolean voodoo) throws IOException {
+		generator.writeNumber(table.getProducts(bucket));
+		if (triangles) {
+			generator.writeNumber(table.getTriangles(bucket));
+			generator.writeNumber(table.getVolume(bucket));
+		}
+		generator.writeNumber(table.getProxies(bucket));
+		if (voodoo) {
+			generator.writeNumber(table.getVoodooRatio(bucket));
+		}
+	}
+
+	/**
+	 * Writes the distributions of the triangles and the triangles per m3 of
+	 * the products, when they are kept: the number of products, p50, p90, p99,
+	 * max and a histogram of [lower bound, count] per power of two, starting
+	 * with [0, products with 0].
+	 */
+	protected void writeDistributions(JsonGenerator generator, GeometryAccumulator geometry) throws IOException {
+		if (geometry == null || geometry.getTriangleDistribution() == null) {
+			return;
+		}
+		writeDistribution(generator, "Triangle distribution", geometry.getTriangleDistribution());
+		writeDistribution(generator, "Triangles per m3 distribution", geometry.getDensityDistribution());
+	}
+
+	private void writeDistribution(JsonGenerator generator, String name, LogHistogram histogram) throws IOException {
+		generator.writeStartObject();
+		generator.writeObjectFieldStart(name);
+		generator.writeNumberField("products", histogram.getCount());
+		generator.writeNumberField("p50", histogram.getQuantile(0.5));
+		generator.writeNumberField("p90", histogram.getQuantile(0.9));
+		generator.writeNumberField("p99", histogram.getQuantile(0.99));
+		generator.writeNumberField("max", histogram.getMax());
+		generator.writeArrayFieldStart("histogram");
+		generator.writeStartArray();
+		generator.writeNumber(0);
+		generator.writeNumber(histogram.getZeroCount());
+		generator.writeEndArray();
+		long[] octaves = histogram.getOctaveCounts();
+		int first = 0;
+		while (first < octaves.length && octaves[first] == 0) {
+			first++;
+		}
+		int last = octaves.length - 1;
+		while (last >= first && octaves[last] == 0) {
+			last--;
+		}
+		for (int octave = first; octave <= last; octave++) {
+			generator.writeStartArray();
+			generator.writeNumber(LogHistogram.getOctaveLowerBound(octave));
+			generator.writeNumber(octaves[octave]);
+			generator.writeEndArray();
+		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Writes the groups of products with identical or nearly identical meshes:
+	 * the number of duplicate groups, the products in them, the triangles that
+	 * instancing would save and the groups that save the most.
+	 */
+	protected void writeDuplicates(JsonGenerator generator, DuplicateGeometryAccumulator duplicates) throws IOException {
+		if (duplicates == null) {
+			return;
+		}
+		generator.writeStartObject();
+		generator.writeObjectFieldStart("Duplicate geometry");
+		generator.writeNumberField("Duplicate groups", duplicates.getDuplicateGroups());
+		generator.writeNumberField("Identical groups", duplicates.getIdenticalGroups());
+		generator.writeNumberField("Products in duplicate groups", duplicates.getDuplicateProducts());
+		generator.writeNumberField("Products with shared geometry", duplicates.getSharedProducts());
+		generator.writeNumberField("Triangles saved by instancing", duplicates.getTrianglesSaved());
+		LOGGER.debug("Duplicate geometry groups: " + duplicates.getDuplicateGroups() + ", triangles saved by instancing: " + duplicates.getTrianglesSaved());
+		int[] worst = duplicates.getWorst();
+		if (worst.length > 0) {
+			generator.writeArrayFieldStart("Worst offenders");
+			for (int i = 0; i < worst.length; i++) {
+				int group = worst[i];
+				generator.writeStartObject();
+				generator.writeNumberField("#", i + 1);
+				generator.writeNumberField("Oid", duplicates.getFirstOid(group));
+				generator.writeStringField("Name", duplicates.getWorstName(i));
+				generator.writeStringField("Type", duplicates.getWorstType(i));
+				generator.writeNumberField("Products", duplicates.getProducts(group));
+				generator.writeNumberField("Meshes", duplicates.getMeshes(group));
+				generator.writeNumberField("Triangles", duplicates.getTriangles(group));
+				generator.writeNumberField("Triangles saved", duplicates.getTrianglesSaved(group));
+				generator.writeBooleanField("Identical", duplicates.isIdentical(group));
+				generator.writeEndObject();
+			}
+			generator.writeEndArray();
+		}
+		generator.writeEndObject();
+		generator.writeEndObject();
+	}
+
+	/**
+	 * Writes the "triangles" total and the "triangles_per_m3" entry with the
+	 * ranking, or only the ranking when the totals are switched off.
+	 */
+	protected void writeGeometry(JsonGenerator generator, GeometryAccumulator geometry) throws IOException {
+		if (geometry == null || (!geometry.isTotals() && geometry.getTop().getK() == 0)) {
+			return;
+		}
+		if (geometry.isTotals()) {
+			writeTotal(generator, "triangles", geometry.getTotalTriangles());
+		}
+		generator.writeStartObject();
+		if (geometry.isTotals()) {
+			generator.writeNumberField("triangles_per_m3", geometry.getTrianglesPerM3());
+			LOGGER.debug("total number of triangles : " + geometry.getTotalTriangles());
+			LOGGER.debug("number of triangles per m3: " + geometry.getTrianglesPerM3());
+		}
+		if (geometry.getTop().getK() == 0) {
+			generator.writeEndObject();
+			return;
+		}
+		TopK top = geometry.getTop();
+		String label = geometry.getMetric().getLabel();
+		LOGGER.debug("Top " + top.getK() + " object with most " + label + ":\n");
+
+		generator.writeArrayFieldStart("Top " + top.getK());
+		int counter = 0;
+		for (int index : top.sortedIndexes()) {
+			LOGGER.debug("\t {}: {}({}) has {} {}.", counter, geometry.getTopName(index), top.getOid(index), top.getValue(index), label);
+			generator.writeStartObject();
+			generator.writeNumberField("#", ++counter);
+			generator.writeNumberField("Oid", top.getOid(index));
+			generator.writeStringField("Name", geometry.getTopName(index));
+			generator.writeNumberField(label, top.getValue(index));
+			generator.writeEndObject();
+		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+	}
+}
@@ -0,0 +1,67 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+
+/**
+ * Collects one kind of statistic while the {@link AnalysisEngine} walks the
+ * products of a model. The engine visits the products in chunks, each with its
+ * own empty accumulator, and merges the chunk accumulators back in chunk order.
+ */
+public interface Accumulator {
+
+	/**
+	 * @return the name the metrics of this accumulator are reported under
+	 */
+	String getName();
+
+	/**
+	 * Called once before the product traversal, on the accumulator that was
+	 * registered with the engine.
+	 */
+	default void start(IfcModelInterface model) {
+	}
+
+	/**
+	 * Reads the contribution of the product from the model into the record.
+	 * Only called for products that could not be replayed from the
+	 * {@link ProductState} of an earlier revision.
+	 */
+	void extract(IfcProduct product, ProductRecord record);
+
+	/**
+	 * Adds the objects besides the product that {@link #extract} reads to the
+	 * inputs, so the product is not replayed when one of them changed. Only
+	 * called in runs that record a {@link ProductState}, for the products
+	 * that are extracted.
+	 */
+	default void addInputs(IfcProduct product, ProductInputs inputs) {
+	}
+
+	/**
+	 * Adds the contribution in the record, called once for every IfcProduct in
+	 * the model, on an accumulator created by {@link #createEmpty()}. Chunks
+	 * may be visited by different threads.
+	 */
+	void add(IfcProduct product, ProductRecord record);
+
+	/**
+	 * @return an accumulator with the same settings and no data, used for one
+	 *         chunk of products. Called after {@link #start(IfcModelInterface)},
+	 *         so state prepared there may be shared (read-only).
+	 */
+	Accumulator createEmpty();
+
+	/**
+	 * Adds the data of a chunk accumulator created by {@link #createEmpty()}
+	 * to this one.
+	 */
+	void merge(Accumulator other);
+
+	/**
+	 * Called once after the product traversal, for statistics that are not
+	 * tied to a single product.
+	 */
+	default void finish(IfcModelInterface model) {
+	}
+}
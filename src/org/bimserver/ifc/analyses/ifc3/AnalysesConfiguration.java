@@ -0,0 +1,363 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.interfaces.objects.SBooleanType;
+import org.bimserver.interfaces.objects.SLongType;
+import org.bimserver.interfaces.objects.SObjectType;
+import org.bimserver.interfaces.objects.SParameter;
+import org.bimserver.interfaces.objects.SStringType;
+import org.bimserver.interfaces.objects.SType;
+import org.bimserver.models.store.BooleanType;
+import org.bimserver.models.store.LongType;
+import org.bimserver.models.store.ObjectDefinition;
+import org.bimserver.models.store.ParameterDefinition;
+import org.bimserver.models.store.PrimitiveDefinition;
+import org.bimserver.models.store.PrimitiveEnum;
+import org.bimserver.models.store.StoreFactory;
+import org.bimserver.models.store.StringType;
+import org.bimserver.models.store.Type;
+import org.bimserver.plugins.PluginConfiguration;
+
+/**
+ * The user settings of the analyses services, read from the
+ * {@link PluginConfiguration} of a run. Settings that are not set fall back to
+ * the defaults, which give the original output. The cache and delta directory
+ * settings are system settings of the plugin instead, see
+ * {@link #configureCache} and {@link #getDeltaDirectory(PluginConfiguration)}.
+ */
+public class AnalysesConfiguration {
+
+	public static final String TOP_K = "topK";
+	public static final String TOP_METRIC = "topMetric";
+	public static final String PARALLELISM = "parallelism";
+	public static final String CACHE_SIZE = "cacheSize";
+	public static final String CACHE_DIRECTORY = "cacheDirectory";
+	public static final String CACHE_DISK_SIZE = "cacheDiskSize";
+	public static final String DELTA_DIRECTORY = "deltaDirectory";
+	public static final String INCLUDE_METRICS = "includeMetrics";
+	public static final String OUTPUT_MODE = "outputMode";
+	public static final String DETAIL_OFFSET = "detailOffset";
+	public static final String DETAIL_LIMIT = "detailLimit";
+	public static final String SAMPLE_TIME = "sampleTime";
+	public static final String SAMPLE_OBJECTS = "sampleObjects";
+
+	private static final int DEFAULT_TOP_K = 10;
+	// The ranking and the worst duplicate groups are written in full, so K is bounded
+	static final int MAX_TOP_K = 10000;
+	private static final long DEFAULT_CACHE_SIZE = 64;
+	private static final long DEFAULT_CACHE_DISK_SIZE = 1024;
+
+	private final int topK;
+	private final RankingMetric topMetric;
+	private final int parallelism;
+	private final boolean includeMetrics;
+	private final OutputMode outputMode;
+	private final long detailOffset;
+	private final long detailLimit;
+	private final long sampleTime;
+	private final long sampleObjects;
+	private final Set<AnalysisModule> modules = EnumSet.noneOf(AnalysisModule.class);
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             when the ranking metric or the output mode is not one of the
+	 *             values of its enum, with a message that lists the values
+	 */
+	public AnalysesConfiguration(PluginConfiguration pluginConfiguration) {
+		if (pluginConfiguration == null) {
+			pluginConfiguration = new PluginConfiguration();
+		}
+		Long topK = pluginConfiguration.getLong(TOP_K);
+		this.topK = topK == null ? DEFAULT_TOP_K : (int) Math.max(0, Math.min(MAX_TOP_K, topK));
+		this.topMetric = getEnum(pluginConfiguration, TOP_METRIC, RankingMetric.class, RankingMetric.TRIANGLES_PER_M3);
+		Long parallelism = pluginConfiguration.getLong(PARALLELISM);
+		// Threads are started per run, so a user cannot start more than the server has processors
+		this.parallelism = parallelism == null ? 1 : (int) Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), parallelism));
+		this.includeMetrics = Boolean.TRUE.equals(pluginConfiguration.getBoolean(INCLUDE_METRICS));
+		this.outputMode = getEnum(pluginConfiguration, OUTPUT_MODE, OutputMode.class, OutputMode.JSON);
+		Long detailOffset = pluginConfiguration.getLong(DETAIL_OFFSET);
+		this.detailOffset = detailOffset == null ? 0 : Math.max(0, detailOffset);
+		Long detailLimit = pluginConfiguration.getLong(DETAIL_LIMIT);
+		this.detailLimit = detailLimit == null ? 0 : Math.max(0, detailLimit);
+		Long sampleTime = pluginConfiguration.getLong(SAMPLE_TIME);
+		this.sampleTime = sampleTime == null ? 0 : Math.max(0, sampleTime);
+		Long sampleObjects = pluginConfiguration.getLong(SAMPLE_OBJECTS);
+		this.sampleObjects = sampleObjects == null ? 0 : Math.max(0, sampleObjects);
+		for (AnalysisModule module : AnalysisModule.values()) {
+			Boolean enabled = pluginConfiguration.getBoolean(module.getIdentifier());
+			if (enabled == null ? module.isEnabledByDefault() : enabled) {
+				modules.add(module);
+			}
+		}
+	}
+
+	private static <E extends Enum<E>> E getEnum(PluginConfiguration pluginConfiguration, String key, Class<E> type, E defaultValue) {
+		String value = pluginConfiguration.getString(key);
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		try {
+			return Enum.valueOf(type, value.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown " + key + " \"" + value.trim() + "\", use one of " + Arrays.toString(type.getEnumConstants()));
+		}
+	}
+
+	private static Path getPath(PluginConfiguration pluginConfiguration, String key) {
+		String path = pluginConfiguration.getString(key);
+		return path == null || path.trim().isEmpty() ? null : Paths.get(path.trim());
+	}
+
+	public int getTopK() {
+		return topK;
+	}
+
+	public RankingMetric getTopMetric() {
+		return topMetric;
+	}
+
+	/**
+	 * @return the number of threads that analyse the products, at most the
+	 *         number of available processors
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * @return whether the time, objects and allocated bytes of every phase are
+	 *         added to the output as "_metrics"
+	 */
+	public boolean isIncludeMetrics() {
+		return includeMetrics;
+	}
+
+	public OutputMode getOutputMode() {
+		return outputMode;
+	}
+
+	/**
+	 * @return the number of per object records that are skipped in the
+	 *         {@link OutputMode#NDJSON} output
+	 */
+	public long getDetailOffset() {
+		return detailOffset;
+	}
+
+	/**
+	 * @return the maximum number of per object records in the
+	 *         {@link OutputMode#NDJSON} output, 0 for all records
+	 */
+	public long getDetailLimit() {
+		return detailLimit;
+	}
+
+	/**
+	 * @return the time in ms after which sampling stops, 0 for no time budget
+	 */
+	public long getSampleTime() {
+		return sampleTime;
+	}
+
+	/**
+	 * @return the maximum number of sampled products, 0 for no object budget
+	 */
+	public long getSampleObjects() {
+		return sampleObjects;
+	}
+
+	/**
+	 * @return whether the totals are estimated from a sample of the products,
+	 *         see {@link SampleEstimator}
+	 */
+	public boolean isSampling() {
+		return sampleTime > 0 || sampleObjects > 0;
+	}
+
+	public boolean isEnabled(AnalysisModule module) {
+		return modules.contains(module);
+	}
+
+	/**
+	 * @return the settings that change the results, as part of the key of
+	 *         {@link AnalysisCache} and {@link ProductState}
+	 */
+	public String getResultKey() {
+		StringBuilder resultKey = new StringBuilder();
+		resultKey.append(TOP_K).append("=").append(topK).append(";").append(TOP_METRIC).append("=").append(topMetric);
+		for (AnalysisModule module : modules) {
+			resultKey.append(";").append(module.getIdentifier());
+		}
+		if (isSampling()) {
+			resultKey.append(";").append(SAMPLE_TIME).append("=").append(sampleTime).append(";").append(SAMPLE_OBJECTS).append("=").append(sampleObjects);
+		}
+		return resultKey.toString();
+	}
+
+	/**
+	 * @return the settings that only change how the results are written, as
+	 *         part of the key of {@link AnalysisCache}. The offset and limit
+	 *         are not part of it, the pages of the NDJSON output are cut from
+	 *         the cached output of all records
+	 */
+	public String getOutputKey() {
+		return OUTPUT_MODE + "=" + outputMode;
+	}
+
+	public static ObjectDefinition createSettingsDefinition() {
+		ObjectDefinition objectDefinition = StoreFactory.eINSTANCE.createObjectDefinition();
+
+		for (AnalysisModule module : AnalysisModule.values()) {
+			BooleanType moduleDefault = StoreFactory.eINSTANCE.createBooleanType();
+			moduleDefault.setValue(module.isEnabledByDefault());
+			objectDefinition.getParameters().add(createParameter(module.getIdentifier(), module.getDisplayName(), module.getDescription(), PrimitiveEnum.BOOLEAN, moduleDefault));
+		}
+
+		LongType topKDefault = StoreFactory.eINSTANCE.createLongType();
+		topKDefault.setValue(DEFAULT_TOP_K);
+		objectDefinition.getParameters().add(createParameter(TOP_K, "Top K", "Number of products listed in the geometry ranking, 0 to skip the ranking, at most " + MAX_TOP_K, PrimitiveEnum.LONG, topKDefault));
+
+		StringType topMetricDefault = StoreFactory.eINSTANCE.createStringType();
+		topMetricDefault.setValue(RankingMetric.TRIANGLES_PER_M3.name());
+		objectDefinition.getParameters().add(createParameter(TOP_METRIC, "Top metric", "Value the geometry ranking is sorted by: TRIANGLES, TRIANGLES_PER_M3 or GEOMETRY_BYTES", PrimitiveEnum.STRING, topMetricDefault));
+
+		LongType parallelismDefault = StoreFactory.eINSTANCE.createLongType();
+		parallelismDefault.setValue(1);
+		objectDefinition.getParameters().add(createParameter(PARALLELISM, "Parallelism", "Number of threads that analyse the products, at most the number of processors of the server", PrimitiveEnum.LONG, parallelismDefault));
+
+		BooleanType includeMetricsDefault = StoreFactory.eINSTANCE.createBooleanType();
+		includeMetricsDefault.setValue(false);
+		objectDefinition.getParameters().add(createParameter(INCLUDE_METRICS, "Include metrics", "Add the time, number of objects and allocated bytes of every phase of the analysis to the output", PrimitiveEnum.BOOLEAN, includeMetricsDefault));
+
+		LongType sampleTimeDefault = StoreFactory.eINSTANCE.createLongType();
+		sampleTimeDefault.setValue(0);
+		objectDefinition.getParameters().add(createParameter(SAMPLE_TIME, "Sample time", "Estimate the totals from a sample of the products, taken for at most this number of ms. 0 analyses all products unless a sample size is set", PrimitiveEnum.LONG, sampleTimeDefault));
+
+		LongType sampleObjectsDefault = StoreFactory.eINSTANCE.createLongType();
+		sampleObjectsDefault.setValue(0);
+		objectDefinition.getParameters().add(createParameter(SAMPLE_OBJECTS, "Sample size", "Estimate the totals from a sample of at most this number of products. 0 analyses all products unless a sample time is set", PrimitiveEnum.LONG, sampleObjectsDefault));
+
+		StringType outputModeDefault = StoreFactory.eINSTANCE.createStringType();
+		outputModeDefault.setValue(OutputMode.JSON.name());
+		objectDefinition.getParameters().add(createParameter(OUTPUT_MODE, "Output mode", "JSON for one JSON object, NDJSON for a summary line followed by one line per object of the detailed lists, SMILE for the JSON object in the binary Smile encoding", PrimitiveEnum.STRING, outputModeDefault));
+
+		LongType detailOffsetDefault = StoreFactory.eINSTANCE.createLongType();
+		detailOffsetDefault.setValue(0);
+		objectDefinition.getParameters().add(createParameter(DETAIL_OFFSET, "Detail offset", "Number of object lines skipped in the NDJSON output, to page through the detailed lists", PrimitiveEnum.LONG, detailOffsetDefault));
+
+		LongType detailLimitDefault = StoreFactory.eINSTANCE.createLongType();
+		detailLimitDefault.setValue(0);
+		objectDefinition.getParameters().add(createParameter(DETAIL_LIMIT, "Detail limit", "Maximum number of object lines in the NDJSON output, 0 for all", PrimitiveEnum.LONG, detailLimitDefault));
+
+		return objectDefinition;
+	}
+
+	/**
+	 * The system settings of the plugin, which size the result cache that is
+	 * shared by all runs of a service and set the directory of the product
+	 * state. Only the administrator chooses where the server writes files.
+	 */
+	public static ObjectDefinition createSystemSettingsDefinition() {
+		ObjectDefinition objectDefinition = StoreFactory.eINSTANCE.createObjectDefinition();
+
+		LongType cacheSizeDefault = StoreFactory.eINSTANCE.createLongType();
+		cacheSizeDefault.setValue(DEFAULT_CACHE_SIZE);
+		objectDefinition.getParameters().add(createParameter(CACHE_SIZE, "Cache size", "Memory in MB used to keep the results of recently analysed revisions, 0 disables the memory cache", PrimitiveEnum.LONG, cacheSizeDefault));
+
+		StringType cacheDirectoryDefault = StoreFactory.eINSTANCE.createStringType();
+		cacheDirectoryDefault.setValue("");
+		objectDefinition.getParameters().add(createParameter(CACHE_DIRECTORY, "Cache directory", "Directory where results are also cached on disk, empty to only cache in memory", PrimitiveEnum.STRING, cacheDirectoryDefault));
+
+		LongType cacheDiskSizeDefault = StoreFactory.eINSTANCE.createLongType();
+		cacheDiskSizeDefault.setValue(DEFAULT_CACHE_DISK_SIZE);
+		objectDefinition.getParameters().add(createParameter(CACHE_DISK_SIZE, "Cache disk size", "Disk space in MB used by the results in the cache directory, least recently used results are deleted first", PrimitiveEnum.LONG, cacheDiskSizeDefault));
+
+		StringType deltaDirectoryDefault = StoreFactory.eINSTANCE.createStringType();
+		deltaDirectoryDefault.setValue("");
+		objectDefinition.getParameters().add(createParameter(DELTA_DIRECTORY, "Delta directory", "Directory where the per product results of the last analysed revision of every project are kept, so the next revision only analyses the changed products. Empty for full analyses", PrimitiveEnum.STRING, deltaDirectoryDefault));
+
+		return objectDefinition;
+	}
+
+	/**
+	 * Configures the cache from the system settings.
+	 * 
+	 * @param systemSettings
+	 *            the system settings, null for the defaults
+	 * @param name
+	 *            the name of the subdirectory of the cache directory, so
+	 *            services do not evict each other's results
+	 */
+	public static void configureCache(AnalysisCache cache, PluginConfiguration systemSettings, String name) {
+		if (systemSettings == null) {
+			systemSettings = new PluginConfiguration();
+		}
+		Long cacheSize = systemSettings.getLong(CACHE_SIZE);
+		Path cacheDirectory = getPath(systemSettings, CACHE_DIRECTORY);
+		Long cacheDiskSize = systemSettings.getLong(CACHE_DISK_SIZE);
+		cache.configure((cacheSize == null ? DEFAULT_CACHE_SIZE : Math.max(0, cacheSize)) * 1024 * 1024, cacheDirectory == null ? null : cacheDirectory.resolve(name),
+				(cacheDiskSize == null ? DEFAULT_CACHE_DISK_SIZE : Math.max(0, cacheDiskSize)) * 1024 * 1024);
+	}
+
+	/**
+	 * @param systemSettings
+	 *            the system settings, null for the defaults
+	 * @return the absolute directory where the per product state of the last
+	 *         analysed revision is kept for incremental analysis, or null
+	 */
+	public static Path getDeltaDirectory(PluginConfiguration systemSettings) {
+		Path deltaDirectory = systemSettings == null ? null : getPath(systemSettings, DELTA_DIRECTORY);
+		return deltaDirectory == null ? null : deltaDirectory.toAbsolutePath().normalize();
+	}
+
+	/**
+	 * Creates a {@link PluginConfiguration} outside a BIMserver, from settings
+	 * that are Boolean, Long or String values.
+	 */
+	public static PluginConfiguration createPluginConfiguration(Map<String, Object> settings) {
+		SObjectType objectType = new SObjectType();
+		for (Map.Entry<String, Object> setting : settings.entrySet()) {
+			SParameter parameter = new SParameter();
+			parameter.setIdentifier(setting.getKey());
+			parameter.setName(setting.getKey());
+			parameter.setValue(createValue(setting.getValue()));
+			objectType.getParameters().add(parameter);
+		}
+		return new PluginConfiguration(objectType);
+	}
+
+	private static SType createValue(Object value) {
+		if (value instanceof Boolean) {
+			SBooleanType booleanType = new SBooleanType();
+			booleanType.setValue((Boolean) value);
+			return booleanType;
+		} else if (value instanceof Number) {
+			SLongType longType = new SLongType();
+			longType.setValue(((Number) value).longValue());
+			return longType;
+		}
+		SStringType stringType = new SStringType();
+		stringType.setValue(String.valueOf(value));
+		return stringType;
+	}
+
+	private static ParameterDefinition createParameter(String identifier, String name, String description, PrimitiveEnum type, Type defaultValue) {
+		ParameterDefinition parameter = StoreFactory.eINSTANCE.createParameterDefinition();
+		parameter.setIdentifier(identifier);
+		parameter.setName(name);
+		parameter.setDescription(description);
+		parameter.setRequired(false);
+		PrimitiveDefinition primitiveDefinition = StoreFactory.eINSTANCE.createPrimitiveDefinition();
+		primitiveDefinition.setType(type);
+		parameter.setType(primitiveDefinition);
+		parameter.setDefaultValue(defaultValue);
+		return parameter;
+	}
+}
@@ -0,0 +1,27 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import org.bimserver.bimbots.BimBotErrorCode;
+
+/**
+ * Error codes of the analyses services, after the codes of
+ * BimBotDefaultErrorCode.
+ */
+public enum AnalysesErrorCode implements BimBotErrorCode {
+
+	/**
+	 * The {@link ModelSource#QUERY} could not load the queried subset of the
+	 * revision
+	 */
+	MODEL_QUERY_FAILED(100);
+
+	private final int errorCode;
+
+	private AnalysesErrorCode(int errorCode) {
+		this.errorCode = errorCode;
+	}
+
+	@Override
+	public int getErrorCode() {
+		return errorCode;
+	}
+}
@@ -0,0 +1,136 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the metrics of the runs of an analyses service and exposes them as an
+ * MXBean named org.bimserver.ifc.analyses:type=Analyses,name=&lt;service&gt;.
+ */
+public class AnalysesMonitor implements AnalysesMonitorMXBean {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AnalysesMonitor.class);
+
+	private final AnalysisCache cache;
+	private final AtomicLong runs = new AtomicLong();
+	private final AnalysisMetrics totals = new AnalysisMetrics();
+	private volatile AnalysisMetrics last = new AnalysisMetrics();
+	private ObjectName objectName;
+
+	public AnalysesMonitor(AnalysisCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Registers the MXBean, replacing the one of an earlier instance of the
+	 * service. Unregister it with {@link #unregister()} when the service is
+	 * unloaded, the platform MBean server would keep it otherwise.
+	 */
+	public synchronized void register(String name) {
+		unregister();
+		try {
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName("org.bimserver.ifc.analyses:type=Analyses,name=" + ObjectName.quote(name));
+			if (mBeanServer.isRegistered(objectName)) {
+				mBeanServer.unregisterMBean(objectName);
+			}
+			mBeanServer.registerMBean(this, objectName);
+			this.objectName = objectName;
+		} catch (JMException | SecurityException e) {
+			LOGGER.warn("Could not register metrics of " + name, e);
+		}
+	}
+
+	public synchronized void unregister() {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException | SecurityException e) {
+			LOGGER.warn("Could not unregister metrics " + objectName, e);
+		}
+		objectName = null;
+	}
+
+	public synchronized boolean isRegistered() {
+		return objectName != null;
+	}
+
+	public void countRun() {
+		runs.incrementAndGet();
+	}
+
+	public void add(AnalysisMetrics metrics) {
+		last = metrics;
+		for (Map.Entry<String, AnalysisMetrics.Phase> entry : metrics.getPhases().entrySet()) {
+			AnalysisMetrics.Phase phase = entry.getValue();
+			totals.add(entry.getKey(), phase.getNanos(), phase.getObjects(), phase.getAllocatedBytes());
+		}
+	}
+
+	@Override
+	public long getRuns() {
+		return runs.get();
+	}
+
+	@Override
+	public long getCacheHits() {
+		return cache.getHits();
+	}
+
+	@Override
+	public long getCacheDiskHits() {
+		return cache.getDiskHits();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return cache.getMisses();
+	}
+
+	@Override
+	public Map<String, Double> getLastPhaseTimes() {
+		return getTimes(last);
+	}
+
+	@Override
+	public Map<String, Long> getLastPhaseObjects() {
+		Map<String, Long> objects = new LinkedHashMap<>();
+		for (Map.Entry<String, AnalysisMetrics.Phase> entry : last.getPhases().entrySet()) {
+			objects.put(entry.getKey(), entry.getValue().getObjects());
+		}
+		return objects;
+	}
+
+	@Override
+	public Map<String, Long> getLastPhaseAllocatedBytes() {
+		Map<String, Long> allocatedBytes = new LinkedHashMap<>();
+		for (Map.Entry<String, AnalysisMetrics.Phase> entry : last.getPhases().entrySet()) {
+			allocatedBytes.put(entry.getKey(), entry.getValue().getAllocatedBytes());
+		}
+		return allocatedBytes;
+	}
+
+	@Override
+	public Map<String, Double> getTotalPhaseTimes() {
+		return getTimes(totals);
+	}
+
+	private static Map<String, Double> getTimes(AnalysisMetrics metrics) {
+		Map<String, Double> times = new LinkedHashMap<>();
+		for (Map.Entry<String, AnalysisMetrics.Phase> entry : metrics.getPhases().entrySet()) {
+			times.put(entry.getKey(), entry.getValue().getNanos() / 1000000.0);
+		}
+		return times;
+	}
+}
@@ -0,0 +1,32 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.util.Map;
+
+/**
+ * JMX view on the runs of an analyses service.
+ */
+public interface AnalysesMonitorMXBean {
+
+	long getRuns();
+
+	long getCacheHits();
+
+	long getCacheDiskHits();
+
+	long getCacheMisses();
+
+	/**
+	 * @return the time in ms per phase of the last analysis that was not
+	 *         served from the cache
+	 */
+	Map<String, Double> getLastPhaseTimes();
+
+	Map<String, Long> getLastPhaseObjects();
+
+	Map<String, Long> getLastPhaseAllocatedBytes();
+
+	/**
+	 * @return the total time in ms per phase of all analyses
+	 */
+	Map<String, Double> getTotalPhaseTimes();
+}
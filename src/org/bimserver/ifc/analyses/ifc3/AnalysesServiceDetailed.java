@@ -1,307 +1,168 @@
 package org.bimserver.ifc.analyses.ifc3;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
+import java.io.IOException;
 import java.util.Map;
-import java.util.Set;
 
-import org.bimserver.bimbots.BimBotContext;
-import org.bimserver.bimbots.BimBotsException;
-import org.bimserver.bimbots.BimBotsInput;
-import org.bimserver.bimbots.BimBotsOutput;
-import org.bimserver.emf.IfcModelInterface;
-import org.bimserver.models.geometry.GeometryInfo;
-import org.bimserver.models.ifc2x3tc1.IfcClassificationReference;
-import org.bimserver.models.ifc2x3tc1.IfcObject;
-import org.bimserver.models.ifc2x3tc1.IfcProduct;
-import org.bimserver.models.ifc2x3tc1.IfcProperty;
-import org.bimserver.models.ifc2x3tc1.IfcPropertySet;
-import org.bimserver.models.ifc2x3tc1.IfcPropertySetDefinition;
-import org.bimserver.models.ifc2x3tc1.IfcPropertySingleValue;
-import org.bimserver.models.ifc2x3tc1.IfcProxy;
-import org.bimserver.models.ifc2x3tc1.IfcRelAssociatesClassification;
-import org.bimserver.models.ifc2x3tc1.IfcRelDefines;
-import org.bimserver.models.ifc2x3tc1.IfcRelDefinesByProperties;
-import org.bimserver.models.ifc2x3tc1.IfcRoot;
-import org.bimserver.plugins.PluginConfiguration;
-import org.bimserver.plugins.SchemaName;
-import org.bimserver.plugins.services.BimBotAbstractService;
-import org.bimserver.utils.IfcUtils;
-import org.eclipse.emf.common.util.EList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.google.common.base.Charsets;
+import com.fasterxml.jackson.core.JsonGenerator;
 
-public class AnalysesServiceDetailed extends BimBotAbstractService {
-
-	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+public class AnalysesServiceDetailed extends AbstractAnalysesService {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(AnalysesServiceDetailed.class);
-	private final String STANDARD_SET_PREFIX = "Pset_";
 
 	@Override
-	public BimBotsOutput runBimBot(BimBotsInput input, BimBotContext bimBotContext, PluginConfiguration pluginConfiguration) throws BimBotsException {
-		LOGGER.debug("Starting Detailed Analayses Plugin !!!! ");
-
-		IfcModelInterface model = input.getIfcModel();
-
-		ObjectNode result = OBJECT_MAPPER.createObjectNode();
-		ArrayNode results = OBJECT_MAPPER.createArrayNode();
+	protected boolean isDetailed() {
+		return true;
+	}
 
-		List<IfcProduct> allIfcProducts = model.getAllWithSubTypes(IfcProduct.class);
+	@Override
+	protected String getTitle() {
+		return "Analyses Detailed Results";
+	}
 
+	@Override
+	protected void writeResults(Analysis analysis, JsonGenerator generator, boolean includeObjects) throws IOException {
 		/*
 		 * The total number of objects
 		 */
-
-		ObjectNode totalObjectsJSON = OBJECT_MAPPER.createObjectNode();
-		totalObjectsJSON.put("Totalobjects", model.size());
-		results.add(totalObjectsJSON);
-		LOGGER.debug("Total amount of objects: " + model.size());
+		writeTotal(generator, "Totalobjects", analysis.getTotalObjects());
+		LOGGER.debug("Total amount of objects: " + analysis.getTotalObjects());
 
 		/*
 		 * The total number of IfcProduct
 		 */
+		writeTotal(generator, "IfcProducts", analysis.getProductCount());
+		LOGGER.debug("Total amount of objects: " + analysis.getProductCount());
 
-		ObjectNode totalIfcObjectsJSON = OBJECT_MAPPER.createObjectNode();
-		totalIfcObjectsJSON.put("IfcProducts", allIfcProducts.size());
-		results.add(totalIfcObjectsJSON);
-		LOGGER.debug("Total amount of objects: " + allIfcProducts.size());
+		if (analysis.getEstimator() != null) {
+			writeEstimates(generator, analysis.getEstimator());
+			return;
+		}
 
-		long totalTriangles = 0;
-		double totalM3 = 0;
-		Map<Double, List<IfcProduct>> topMap = new HashMap<>();
+		writeGeometry(generator, analysis.getGeometry());
+		writeDistributions(generator, analysis.getGeometry());
+		writeDuplicates(generator, analysis.getDuplicates());
 
-		for (IfcProduct ifcProduct : allIfcProducts) {
-			GeometryInfo geometryInfo = ifcProduct.getGeometry();
-			if (geometryInfo != null) {
-				int nrTriangles = ifcProduct.getGeometry().getPrimitiveCount();
-				totalTriangles += nrTriangles;
-				Double volume = IfcUtils.getIfcQuantityVolume(ifcProduct);
-				Double trianglesPerM3 = new Double(0);
-				if (volume != null && volume > 0) {
-					totalM3 += volume;
-					trianglesPerM3 = new Double(nrTriangles / volume.doubleValue());
+		ProxyAccumulator proxies = analysis.getProxies();
+		if (proxies != null) {
+			writeTotal(generator, "Number of proxy objects", proxies.getObjProxyCount());
+			LOGGER.debug("Number of proxy objects: " + proxies.getObjProxyCount());
+		}
 
-					if (!topMap.keySet().contains(trianglesPerM3)) {
-						topMap.put(trianglesPerM3, new ArrayList<IfcProduct>());
-					}
-					topMap.get(trianglesPerM3).add(ifcProduct);
-				}
-			}
+		PropertySetAccumulator propertySets = analysis.getPropertySets();
+		if (propertySets != null) {
+			writePropertySets(generator, propertySets, includeObjects);
 		}
 
-		ObjectNode totaltrianglesJSON = OBJECT_MAPPER.createObjectNode();
-		totaltrianglesJSON.put("triangles", totalTriangles);
-		results.add(totaltrianglesJSON);
+		ClassificationAccumulator classifications = analysis.getClassifications();
+		if (classifications != null) {
+			writeClassifications(generator, classifications, includeObjects);
+		}
 
-		ObjectNode trianglesPerM3JSON = OBJECT_MAPPER.createObjectNode();
-		trianglesPerM3JSON.put("triangles_per_m3", (totalM3 > 0 ? (totalTriangles / totalM3) : 0));
-		LOGGER.debug("total number of triangles : " + totalTriangles);
-		LOGGER.debug("number of triangles per m3: " + totalTriangles / totalM3);
-		LOGGER.debug("Top 10 object with most number of triangles:\n");
+		writeCoverage(generator, analysis);
+		writeBreakdown(generator, analysis);
+	}
 
-		ArrayNode top10JSON = OBJECT_MAPPER.createArrayNode();
+	private void writePropertySets(JsonGenerator generator, PropertySetAccumulator propertySets, boolean includeObjects) throws IOException {
+		writeTotal(generator, "Number of properties", propertySets.getPropCount());
+		writeTotal(generator, "Ojects with properties", propertySets.getObjWithPropCount());
 
-		int nrOfTops = 0;
-		Set<Double> keySet = topMap.keySet();
-		Double[] keyArray = new Double[keySet.size()];
-		keySet.toArray(keyArray);
-		Arrays.sort(keyArray, Collections.reverseOrder());
-		int counter = 0;
-		for (Double key : keyArray) {
-			if (nrOfTops >= 10)
-				break;
+		LOGGER.debug("Number of properties: " + propertySets.getPropCount() + " in " + propertySets.getObjWithPropCount() + " objects");
+		LOGGER.debug("Number of IfcObject with voodoo propertySets (does not start with " + PropertySetAccumulator.STANDARD_SET_PREFIX + "): "
+				+ propertySets.getObjectWithVodooSetCount());
 
-			for (IfcProduct product : topMap.get(key)) {
-				LOGGER.debug("\t " + counter + ": " + product.getName() + "(" + product.getOid() + ") has " + key
-						+ "trangles per m3.");
-				ObjectNode top10ObjectJSON = OBJECT_MAPPER.createObjectNode();
-				top10ObjectJSON.put("#", ++counter);
-				top10ObjectJSON.put("Oid", product.getOid());
-				top10ObjectJSON.put("Name", product.getName());
-				top10ObjectJSON.put("triangles per m3", key);
-				top10JSON.add(top10ObjectJSON);
-				nrOfTops++;
-			}
+		generator.writeStartObject();
+		generator.writeNumberField("Ojects with voodoo properties sets", propertySets.getObjectWithVodooSetCount());
+		if (includeObjects) {
+			generator.writeFieldName("objectsWithPropertieSet");
+			writeObjects(generator, propertySets.getObjectWithVodooSet());
 		}
-		trianglesPerM3JSON.putPOJO("Top 10", top10JSON);
+		generator.writeEndObject();
 
-		results.add(trianglesPerM3JSON);
+		LOGGER.debug("IfcObject with voodoo properties: " + propertySets.getObjectWithVodooPropCount());
 
-		long propCount = 0;
-		long objWithPropCount = 0;
-		long objProxyCount = 0;
-		List<IfcObject> objectWithVodooSet = new ArrayList<IfcObject>();
-		List<IfcObject> objectWithVodooProp = new ArrayList<IfcObject>();
+		generator.writeStartObject();
+		generator.writeNumberField("Ojects with voodoo properties", propertySets.getObjectWithVodooPropCount());
+		if (includeObjects) {
+			generator.writeFieldName("objectsWithProperties");
+			writeObjects(generator, propertySets.getObjectWithVodooProp());
+		}
+		generator.writeEndObject();
+	}
 
-		for (IfcProduct product : allIfcProducts) {
+	/*
+	 * Classifications by Kind
+	 */
+	private void writeClassifications(JsonGenerator generator, ClassificationAccumulator classifications, boolean includeObjects) throws IOException {
+		generator.writeStartObject();
+		generator.writeNumberField("Number of classification", classifications.getClassificationCount());
 
-			if (product instanceof IfcProxy)
-				objProxyCount++;
+		LOGGER.debug("Number of objects with classification: " + classifications.getClassifiedObjectCount());
+		LOGGER.debug("Type of classifications:");
 
-			for (IfcRelDefines def : product.getIsDefinedBy()) {
-				objWithPropCount++;
-				if (def instanceof IfcRelDefinesByProperties) {
-					IfcPropertySetDefinition propSetDef = (IfcPropertySetDefinition) ((IfcRelDefinesByProperties) def)
-							.getRelatingPropertyDefinition();
-					if (propSetDef instanceof IfcPropertySet) {
+		generator.writeArrayFieldStart("Classifications");
+		for (Map.Entry<String, ObjectList> classification : classifications.getClassificationByKinds().entrySet()) {
+			LOGGER.debug("\t{}:", classification.getKey());
 
-						if (!propSetDef.getName().startsWith(STANDARD_SET_PREFIX)
-								&& !objectWithVodooSet.contains(product))
-							objectWithVodooSet.add(product);
-						for (IfcProperty prop : ((IfcPropertySet) propSetDef).getHasProperties()) {
-							if (!prop.getName().startsWith(STANDARD_SET_PREFIX)
-									&& !objectWithVodooProp.contains(product))
-								objectWithVodooProp.add(product);
-							if (prop instanceof IfcPropertySingleValue) {
-								propCount++;
-							}
-						}
-					}
-				}
+			generator.writeStartObject();
+			generator.writeNumberField("#Objects", classification.getValue().size());
+			generator.writeStringField("Classification", classification.getKey());
+			if (includeObjects) {
+				generator.writeFieldName("objects");
+				writeObjects(generator, classification.getValue());
 			}
+			generator.writeEndObject();
 		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+	}
 
-		LOGGER.debug("Done checking objects for voodoo properties.");
-
-		ObjectNode totalproxyJSON = OBJECT_MAPPER.createObjectNode();
-		totalproxyJSON.put("Number of proxy objects", objProxyCount);
-		results.add(totalproxyJSON);
-
-		ObjectNode totalpropertiesJSON = OBJECT_MAPPER.createObjectNode();
-		totalpropertiesJSON.put("Number of properties", propCount);
-		results.add(totalpropertiesJSON);
-
-		ObjectNode totalObjectsxWithPropertiesJSON = OBJECT_MAPPER.createObjectNode();
-		totalObjectsxWithPropertiesJSON.put("Ojects with properties", objWithPropCount);
-		results.add(totalObjectsxWithPropertiesJSON);
-
-		ObjectNode totalObjectsxWithVoodooPropertiesSetsJSON = OBJECT_MAPPER.createObjectNode();
-		totalObjectsxWithVoodooPropertiesSetsJSON.put("Ojects with voodoo properties sets", objectWithVodooSet.size());
-
-		ObjectNode totalObjectsxWithVoodooPropertiesJSON = OBJECT_MAPPER.createObjectNode();
-		totalObjectsxWithVoodooPropertiesJSON.put("Ojects with voodoo properties", objectWithVodooProp.size());
-
-		LOGGER.debug("Number of proxy objects: " + objProxyCount);
-		LOGGER.debug("Number of properties: " + propCount + " in " + objWithPropCount + " objects");
-		LOGGER.debug("Number of IfcObject with voodoo propertySets (does not start with " + STANDARD_SET_PREFIX + "): "
-				+ objectWithVodooSet.size());
-		LOGGER.debug("IfcObject with voodoo sets: " + objectWithVodooProp.size());
-
-		ArrayNode objectWithVodooPropertiesSetArrayJSON = OBJECT_MAPPER.createArrayNode();
-
-		for (IfcObject obj : objectWithVodooSet) {
-			LOGGER.debug("\t" + obj.getName());
-
-			ObjectNode setNodeJSON = OBJECT_MAPPER.createObjectNode();
-			setNodeJSON.put("Object", obj.getName());
-			setNodeJSON.put("ObjectId", obj.getOid());
-			objectWithVodooPropertiesSetArrayJSON.add(setNodeJSON);
-
+	@Override
+	protected long getRecordCount(Analysis analysis) {
+		long records = 0;
+		PropertySetAccumulator propertySets = analysis.getPropertySets();
+		if (propertySets != null) {
+			records += propertySets.getObjectWithVodooSet().size() + propertySets.getObjectWithVodooProp().size();
 		}
-		totalObjectsxWithVoodooPropertiesSetsJSON.putPOJO("objectsWithPropertieSet",
-				objectWithVodooPropertiesSetArrayJSON);
-		results.add(totalObjectsxWithVoodooPropertiesSetsJSON);
-
-		ArrayNode objectWithVodooPropertiesArrayJSON = OBJECT_MAPPER.createArrayNode();
-		LOGGER.debug("IfcObject with voodoo properties: " + objectWithVodooProp.size());
-
-		for (IfcObject obj : objectWithVodooProp) {
-			LOGGER.debug("\t" + obj.getName());
-
-			ObjectNode propNodeJSON = OBJECT_MAPPER.createObjectNode();
-			propNodeJSON.put("Object", obj.getName());
-			propNodeJSON.put("ObjectId", obj.getOid());
-			objectWithVodooPropertiesArrayJSON.add(propNodeJSON);
+		ClassificationAccumulator classifications = analysis.getClassifications();
+		if (classifications != null) {
+			for (ObjectList objects : classifications.getClassificationByKinds().values()) {
+				records += objects.size();
+			}
 		}
-		totalObjectsxWithVoodooPropertiesJSON.putPOJO("objectsWithProperties", objectWithVodooPropertiesArrayJSON);
-
-		results.add(totalObjectsxWithVoodooPropertiesJSON);
-
-		/*
-		 * Classifications by Kind
-		 */
-
-		ArrayList<IfcRoot> classifiedObjectsList = new ArrayList<IfcRoot>();
-		List<IfcRelAssociatesClassification> classificationsList = model
-				.getAllWithSubTypes(IfcRelAssociatesClassification.class);
-		Map<String, List<IfcRoot>> classificationByKinds = new HashMap<String, List<IfcRoot>>();
+		return records;
+	}
 
-		for (IfcRelAssociatesClassification ifcRelAssociatesClassification : classificationsList) {
-			if (ifcRelAssociatesClassification.getRelatingClassification() instanceof IfcClassificationReference) {
-				if (!classificationByKinds.containsKey(
-						((IfcClassificationReference) ifcRelAssociatesClassification.getRelatingClassification())
-								.getName()))
-					classificationByKinds.put(
-							((IfcClassificationReference) ifcRelAssociatesClassification.getRelatingClassification())
-									.getName(),
-							new ArrayList<>());
-				EList<IfcRoot> a = ifcRelAssociatesClassification.getRelatedObjects();
-				for (IfcRoot ifcRoot : a) {
-					classificationByKinds.get(
-							((IfcClassificationReference) ifcRelAssociatesClassification.getRelatingClassification())
-									.getName())
-							.add(ifcRoot);
-					if (!classifiedObjectsList.contains(ifcRoot)) {
-						classifiedObjectsList.add(ifcRoot);
-					}
+	@Override
+	protected void writeRecords(Analysis analysis, RecordWriter writer) throws IOException {
+		PropertySetAccumulator propertySets = analysis.getPropertySets();
+		if (propertySets != null) {
+			writer.write("objectsWithPropertieSet", null, propertySets.getObjectWithVodooSet());
+			writer.write("objectsWithProperties", null, propertySets.getObjectWithVodooProp());
+		}
+		ClassificationAccumulator classifications = analysis.getClassifications();
+		if (classifications != null) {
+			for (Map.Entry<String, ObjectList> classification : classifications.getClassificationByKinds().entrySet()) {
+				if (writer.isFull()) {
+					break;
 				}
+				writer.write("objects", classification.getKey(), classification.getValue());
 			}
 		}
+	}
 
-		ObjectNode totalClassifications = OBJECT_MAPPER.createObjectNode();
-		totalClassifications.put("Number of classification", classificationsList.size());
-
-		// log by kinds
-		ArrayNode classificationTypeArrayJSON = OBJECT_MAPPER.createArrayNode();
-
-		LOGGER.debug("Number of objects with classification: " + classifiedObjectsList.size());
-		LOGGER.debug("Type of classifications:");
-
-		for (String classification : classificationByKinds.keySet()) {
-			LOGGER.debug("\t" + classification + ":");
-
-			ArrayNode objectsWithClassificationTypeArrayJSON = OBJECT_MAPPER.createArrayNode();
-			ObjectNode classificationTypeJSON = OBJECT_MAPPER.createObjectNode();
-
-			classificationTypeJSON.put("#Objects", classificationByKinds.get(classification).size());
-			classificationTypeJSON.put("Classification", classification);
-			for (IfcRoot object : classificationByKinds.get(classification)) {
-				LOGGER.debug("\t\t" + object.getName());
-				ObjectNode objectWithClassificationTypeJSON = OBJECT_MAPPER.createObjectNode();
-				objectWithClassificationTypeJSON.put("Object", object.getName());
-				objectWithClassificationTypeJSON.put("ObjectId", object.getOid());
-				objectsWithClassificationTypeArrayJSON.add(objectWithClassificationTypeJSON);
-			}
-			classificationTypeJSON.putPOJO("objects", objectsWithClassificationTypeArrayJSON);
+	private void writeObjects(JsonGenerator generator, ObjectList objects) throws IOException {
+		generator.writeStartArray();
+		for (int i = 0; i < objects.size(); i++) {
+			LOGGER.debug("\t{}", objects.getName(i));
 
-			classificationTypeArrayJSON.add(classificationTypeJSON);
+			generator.writeStartObject();
+			generator.writeStringField("Object", objects.getName(i));
+			generator.writeNumberField("ObjectId", objects.getOid(i));
+			generator.writeEndObject();
 		}
-		totalClassifications.putPOJO("Classifications", classificationTypeArrayJSON);
-
-		results.add(totalClassifications);
-
-		BimBotsOutput output = null;
-
-		result.putPOJO("results", results);
-		LOGGER.debug("Adding text to extended data : " + result.toString());
-		output = new BimBotsOutput(SchemaName.UNSTRUCTURED_UTF8_TEXT_1_0, result.toString().getBytes(Charsets.UTF_8));
-
-		output.setTitle("Analyses Detailed Results");
-		output.setContentType("application/json");
-		return output;
-	}
-
-	@Override
-	public String getOutputSchema() {
-		return SchemaName.UNSTRUCTURED_UTF8_TEXT_1_0.name();
+		generator.writeEndArray();
 	}
-}
\ No newline at end of file
+}
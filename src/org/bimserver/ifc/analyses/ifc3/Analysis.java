@@ -0,0 +1,153 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import org.bimserver.emf.IfcModelInterface;
+
+/**
+ * The set of accumulators shared by the analyses services, filled by a single
+ * {@link AnalysisEngine} run over the model. Only the accumulators of the
+ * enabled {@link AnalysisModule}s are created, the getters of the others
+ * return null.
+ */
+public class Analysis {
+
+	private static final String SAMPLING = "sampling";
+	// Fixed, so an object budget always gives the same sample
+	private static final long SAMPLE_SEED = 0x5eed;
+
+	private final GeometryAccumulator geometry;
+	private final ProxyAccumulator proxies;
+	private final PropertySetAccumulator propertySets;
+	private final ClassificationAccumulator classifications;
+	private final BreakdownAccumulator breakdown;
+	private final DuplicateGeometryAccumulator duplicates;
+	private final AnalysisEngine engine;
+	private final AnalysesConfiguration configuration;
+	private final AnalysisMetrics metrics = new AnalysisMetrics();
+	private SampleEstimator estimator;
+	private long estimatedTotalObjects;
+	private long revisionObjects = -1;
+
+	public Analysis(boolean detailed, AnalysesConfiguration configuration) {
+		this.configuration = configuration;
+		engine = new AnalysisEngine().setParallelism(configuration.getParallelism()).setMetrics(metrics, configuration.isIncludeMetrics());
+		boolean triangles = configuration.isEnabled(AnalysisModule.TRIANGLES);
+		boolean distribution = configuration.isEnabled(AnalysisModule.DISTRIBUTION);
+		geometry = triangles || distribution || configuration.getTopK() > 0 ? new GeometryAccumulator(triangles, configuration.getTopMetric(), configuration.getTopK(), distribution) : null;
+		proxies = configuration.isEnabled(AnalysisModule.PROXIES) ? new ProxyAccumulator() : null;
+		propertySets = configuration.isEnabled(AnalysisModule.VOODOO) ? new PropertySetAccumulator(detailed) : null;
+		classifications = configuration.isEnabled(AnalysisModule.CLASSIFICATIONS) ? new ClassificationAccumulator(detailed, configuration.isEnabled(AnalysisModule.COVERAGE)) : null;
+		breakdown = configuration.isEnabled(AnalysisModule.BREAKDOWN) ? new BreakdownAccumulator() : null;
+		duplicates = configuration.isEnabled(AnalysisModule.DUPLICATES) ? new DuplicateGeometryAccumulator(configuration.getTopK()) : null;
+		// Classifications and breakdown read the flags of the others
+		for (Accumulator accumulator : new Accumulator[] { geometry, proxies, propertySets, classifications, breakdown, duplicates }) {
+			if (accumulator != null) {
+				engine.add(accumulator);
+			}
+		}
+	}
+
+	public void run(IfcModelInterface model) {
+		engine.run(model);
+	}
+
+	/**
+	 * Estimates the totals from a sample of the products within the sample
+	 * budget of the configuration, instead of running the accumulators over
+	 * all products. The accumulators stay empty, the estimates are in
+	 * {@link #getEstimator()}.
+	 */
+	public void estimate(IfcModelInterface model) {
+		estimatedTotalObjects = model.size();
+		estimator = new SampleEstimator(configuration.getSampleTime(), configuration.getSampleObjects(), configuration.isEnabled(AnalysisModule.TRIANGLES),
+				configuration.isEnabled(AnalysisModule.VOODOO), configuration.isEnabled(AnalysisModule.CLASSIFICATIONS), SAMPLE_SEED);
+		estimator.run(model);
+		metrics.add(SAMPLING, estimator.getNanos(), estimator.getSampled(), 0);
+	}
+
+	/**
+	 * Runs the analysis, replaying unchanged products from the state of an
+	 * earlier revision, and records the state of this revision.
+	 * 
+	 * @param previousState
+	 *            the state of the earlier revision, or null for a full run
+	 * @return the state of this revision
+	 */
+	public ProductState runIncremental(IfcModelInterface model, ProductState previousState) {
+		engine.setPreviousState(previousState).setStateKey(configuration.getResultKey());
+		try {
+			engine.run(model);
+		} finally {
+			engine.setPreviousState(null).setStateKey(null);
+		}
+		return engine.getState();
+	}
+
+	/**
+	 * @return the number of products replayed from the previous state by
+	 *         {@link #runIncremental(IfcModelInterface, ProductState)}
+	 */
+	public int getReusedCount() {
+		return engine.getReusedCount();
+	}
+
+	AnalysisEngine getEngine() {
+		return engine;
+	}
+
+	public AnalysisMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @param revisionObjects
+	 *            the number of objects of the revision, to report instead of
+	 *            the size of a model that only has the queried subset loaded,
+	 *            or -1
+	 */
+	public void setRevisionObjects(long revisionObjects) {
+		this.revisionObjects = revisionObjects;
+	}
+
+	public long getTotalObjects() {
+		if (revisionObjects >= 0) {
+			return revisionObjects;
+		}
+		return estimator != null ? estimatedTotalObjects : engine.getTotalObjects();
+	}
+
+	public int getProductCount() {
+		return estimator != null ? estimator.getProductCount() : engine.getProductCount();
+	}
+
+	/**
+	 * @return the estimates of {@link #estimate(IfcModelInterface)}, or null
+	 *         when all products were analysed
+	 */
+	public SampleEstimator getEstimator() {
+		return estimator;
+	}
+
+	public GeometryAccumulator getGeometry() {
+		return geometry;
+	}
+
+	public ProxyAccumulator getProxies() {
+		return proxies;
+	}
+
+	public PropertySetAccumulator getPropertySets() {
+		return propertySets;
+	}
+
+	public ClassificationAccumulator getClassifications() {
+		return classifications;
+	}
+
+	public BreakdownAccumulator getBreakdown() {
+		return breakdown;
+	}
+
+	public DuplicateGeometryAccumulator getDuplicates() {
+		return duplicates;
+	}
+}
@@ -0,0 +1,256 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps serialized analysis results in memory, least recently used first out
+ * when the byte budget is exceeded. When a directory is configured the results
+ * are also written to disk, so they survive eviction and restarts. The disk
+ * tier has its own byte budget, files are evicted least recently used first
+ * as well, by their modification time, which is updated on every disk hit.
+ * The cache is configured once, from the system settings of the plugin.
+ */
+public class AnalysisCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(AnalysisCache.class);
+	private static final String EXTENSIONS = getExtensions();
+
+	private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+	// File name to size, least recently used first
+	private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private long maxBytes;
+	private long bytes;
+	private Path directory;
+	private long maxDiskBytes;
+	private long diskBytes;
+
+	/**
+	 * @param maxBytes
+	 *            the memory budget, 0 disables the memory tier
+	 * @param directory
+	 *            the directory of the disk tier, or null. Results that are
+	 *            already in it are kept within the disk budget
+	 * @param maxDiskBytes
+	 *            the disk budget
+	 */
+	public synchronized void configure(long maxBytes, Path directory, long maxDiskBytes) {
+		this.maxBytes = maxBytes;
+		this.directory = directory;
+		this.maxDiskBytes = maxDiskBytes;
+		evict();
+		files.clear();
+		diskBytes = 0;
+		if (directory != null) {
+			scan();
+			evictFiles();
+		}
+	}
+
+	private void scan() {
+		List<Path> existing = new ArrayList<>();
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, "*.{" + EXTENSIONS + "}")) {
+			for (Path file : directoryStream) {
+				existing.add(file);
+			}
+			existing.sort(Comparator.comparing(AnalysisCache::getLastModifiedTime));
+			for (Path file : existing) {
+				long size = Files.size(file);
+				files.put(file.getFileName().toString(), size);
+				diskBytes += size;
+			}
+		} catch (NoSuchFileException e) {
+			// Created on the first put
+		} catch (IOException | UncheckedIOException e) {
+			LOGGER.warn("Could not list cached results in " + directory, e);
+		}
+	}
+
+	private static FileTime getLastModifiedTime(Path file) {
+		try {
+			return Files.getLastModifiedTime(file);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public synchronized boolean isEnabled() {
+		return maxBytes > 0 || directory != null;
+	}
+
+	/**
+	 * @return the result for the key, written in the given output mode, or
+	 *         null
+	 */
+	public byte[] get(String key, OutputMode outputMode) {
+		Path file;
+		synchronized (this) {
+			byte[] data = entries.get(key);
+			if (data != null) {
+				hits.incrementAndGet();
+				return data;
+			}
+			String fileName = fileName(key, outputMode);
+			file = files.get(fileName) == null ? null : directory.resolve(fileName);
+		}
+		if (file != null) {
+			try {
+				byte[] data = Files.readAllBytes(file);
+				Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+				diskHits.incrementAndGet();
+				putInMemory(key, data);
+				return data;
+			} catch (IOException e) {
+				LOGGER.warn("Could not read cached result " + file, e);
+				removeFile(file.getFileName().toString());
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	public void put(String key, OutputMode outputMode, byte[] data) {
+		putInMemory(key, data);
+		Path directory;
+		synchronized (this) {
+			directory = data.length > maxDiskBytes ? null : this.directory;
+		}
+		if (directory != null) {
+			String fileName = fileName(key, outputMode);
+			try {
+				Files.createDirectories(directory);
+				Path temp = Files.createTempFile(directory, "analysis", ".tmp");
+				Files.write(temp, data);
+				Files.move(temp, directory.resolve(fileName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				putFile(fileName, data.length);
+			} catch (IOException e) {
+				LOGGER.warn("Could not write cached result to " + directory, e);
+			}
+		}
+	}
+
+	private synchronized void putFile(String fileName, long size) {
+		Long previous = files.put(fileName, size);
+		if (previous != null) {
+			diskBytes -= previous;
+		}
+		diskBytes += size;
+		evictFiles();
+	}
+
+	private synchronized void removeFile(String fileName) {
+		Long size = files.remove(fileName);
+		if (size != null) {
+			diskBytes -= size;
+		}
+	}
+
+	private void evictFiles() {
+		Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+		while (diskBytes > maxDiskBytes && iterator.hasNext()) {
+			Map.Entry<String, Long> file = iterator.next();
+			try {
+				Files.deleteIfExists(directory.resolve(file.getKey()));
+			} catch (IOException e) {
+				LOGGER.warn("Could not delete cached result " + file.getKey(), e);
+			}
+			diskBytes -= file.getValue();
+			iterator.remove();
+		}
+	}
+
+	private synchronized void putInMemory(String key, byte[] data) {
+		if (data.length > maxBytes) {
+			return;
+		}
+		byte[] previous = entries.put(key, data);
+		if (previous != null) {
+			bytes -= previous.length;
+		}
+		bytes += data.length;
+		evict();
+	}
+
+	private void evict() {
+		Iterator<Map.Entry<String, byte[]>> iterator = entries.entrySet().iterator();
+		while (bytes > maxBytes && iterator.hasNext()) {
+			bytes -= iterator.next().getValue().length;
+			iterator.remove();
+		}
+	}
+
+	private static String fileName(String key, OutputMode outputMode) {
+		return sha256(key.getBytes(StandardCharsets.UTF_8)) + "." + outputMode.getExtension();
+	}
+
+	private static String getExtensions() {
+		StringBuilder extensions = new StringBuilder();
+		for (OutputMode outputMode : OutputMode.values()) {
+			extensions.append(extensions.length() == 0 ? "" : ",").append(outputMode.getExtension());
+		}
+		return extensions.toString();
+	}
+
+	static String sha256(byte[] data) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+			StringBuilder hex = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public synchronized int getEntryCount() {
+		return entries.size();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized int getFileCount() {
+		return files.size();
+	}
+
+	public synchronized long getDiskBytes() {
+		return diskBytes;
+	}
+}
@@ -0,0 +1,280 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+
+/**
+ * Visits every IfcProduct of a model exactly once and feeds it to all
+ * registered {@link Accumulator}s.
+ * <p>
+ * The products are visited in chunks of a fixed size, each chunk with its own
+ * empty accumulators that are merged back in chunk order. Because the chunking
+ * does not depend on the parallelism, a parallel run gives exactly the same
+ * results (including floating point sums and list order) as a sequential run.
+ * <p>
+ * When a {@link ProductState} of an earlier revision is set, the objects that
+ * changed after it are found by their rid, see
+ * {@link ProductState#findChanged}. Products that did not change and do not
+ * read a changed object are replayed from that state and their features are
+ * not read. Because every product is still added in traversal order, the
+ * results are equal to those of a full run.
+ */
+public class AnalysisEngine {
+
+	static final int CHUNK_SIZE = 4096;
+
+	private final List<Accumulator> accumulators = new ArrayList<>();
+	private int parallelism = 1;
+	private ProductState previousState;
+	private String stateKey;
+	private ProductState state;
+	private OidSet changed;
+	private int reusedCount;
+	private AnalysisMetrics metrics;
+	private boolean accumulatorMetrics;
+	private long totalObjects;
+	private int productCount;
+
+	public AnalysisEngine(Accumulator... accumulators) {
+		this.accumulators.addAll(Arrays.asList(accumulators));
+	}
+
+	public AnalysisEngine add(Accumulator accumulator) {
+		accumulators.add(accumulator);
+		return this;
+	}
+
+	/**
+	 * @param parallelism
+	 *            the number of threads that visit chunks of products, 1 visits
+	 *            them on the calling thread. Not bounded here, user settings
+	 *            are bounded by {@link AnalysesConfiguration#getParallelism()}
+	 */
+	public AnalysisEngine setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+		return this;
+	}
+
+	/**
+	 * @param previousState
+	 *            the state of an earlier revision to replay unchanged products
+	 *            from, or null
+	 */
+	public AnalysisEngine setPreviousState(ProductState previousState) {
+		this.previousState = previousState;
+		return this;
+	}
+
+	/**
+	 * Records the {@link ProductState} of this run, to be used as the previous
+	 * state of the next revision.
+	 * 
+	 * @param stateKey
+	 *            the key of the settings the records are made with, or null to
+	 *            not record the state
+	 */
+	public AnalysisEngine setStateKey(String stateKey) {
+		this.stateKey = stateKey;
+		return this;
+	}
+
+	/**
+	 * @param metrics
+	 *            receives the time, objects and allocated bytes of the
+	 *            enumeration, the product chunks and the start and finish of
+	 *            every accumulator, and the wall time of the traversal of all
+	 *            chunks, or null
+	 * @param accumulatorMetrics
+	 *            also time every accumulator per product, which costs two
+	 *            System.nanoTime calls per product and accumulator
+	 */
+	public AnalysisEngine setMetrics(AnalysisMetrics metrics, boolean accumulatorMetrics) {
+		this.metrics = metrics;
+		this.accumulatorMetrics = accumulatorMetrics;
+		return this;
+	}
+
+	public void run(IfcModelInterface model) {
+		long startTime = System.nanoTime();
+		long startAllocated = AnalysisMetrics.getAllocatedBytes();
+		totalObjects = model.size();
+		List<IfcProduct> allIfcProducts = model.getAllWithSubTypes(IfcProduct.class);
+		productCount = allIfcProducts.size();
+		if (metrics != null) {
+			metrics.add(AnalysisMetrics.ENUMERATION, System.nanoTime() - startTime, productCount, AnalysisMetrics.getAllocatedBytes() - startAllocated);
+		}
+
+		for (Accumulator accumulator : accumulators) {
+			startTime = System.nanoTime();
+			startAllocated = AnalysisMetrics.getAllocatedBytes();
+			accumulator.start(model);
+			if (metrics != null) {
+				metrics.add(accumulator.getName(), System.nanoTime() - startTime, 0, AnalysisMetrics.getAllocatedBytes() - startAllocated);
+			}
+		}
+
+		if (stateKey == null) {
+			state = null;
+		} else {
+			state = new ProductState(stateKey, productCount);
+			int maxRid = 0;
+			for (IdEObject object : model.getValues()) {
+				maxRid = Math.max(maxRid, object.getRid());
+			}
+			state.setMaxRid(maxRid);
+		}
+		changed = previousState == null ? null : previousState.findChanged(model);
+		reusedCount = 0;
+		long traversalStart = System.nanoTime();
+		int nrOfChunks = (productCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		if (parallelism == 1 || nrOfChunks <= 1) {
+			for (int chunk = 0; chunk < nrOfChunks; chunk++) {
+				merge(runChunk(allIfcProducts, chunk));
+			}
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, nrOfChunks));
+			try {
+				List<ForkJoinTask<Chunk>> tasks = new ArrayList<>(nrOfChunks);
+				for (int chunk = 0; chunk < nrOfChunks; chunk++) {
+					final int index = chunk;
+					tasks.add(pool.submit(() -> runChunk(allIfcProducts, index)));
+				}
+				for (ForkJoinTask<Chunk> task : tasks) {
+					merge(task.join());
+				}
+			} finally {
+				pool.shutdown();
+			}
+		}
+		if (metrics != null) {
+			// The allocations of the other threads are in the products phase
+			metrics.add(AnalysisMetrics.TRAVERSAL, System.nanoTime() - traversalStart, productCount, 0);
+		}
+
+		for (Accumulator accumulator : accumulators) {
+			startTime = System.nanoTime();
+			startAllocated = AnalysisMetrics.getAllocatedBytes();
+			accumulator.finish(model);
+			if (metrics != null) {
+				metrics.add(accumulator.getName(), System.nanoTime() - startTime, 0, AnalysisMetrics.getAllocatedBytes() - startAllocated);
+			}
+		}
+	}
+
+	private Chunk runChunk(List<IfcProduct> products, int index) {
+		long startTime = System.nanoTime();
+		long startAllocated = AnalysisMetrics.getAllocatedBytes();
+		Chunk chunk = new Chunk();
+		chunk.nanos = new long[accumulators.size()];
+		boolean timed = metrics != null && accumulatorMetrics;
+		for (Accumulator accumulator : accumulators) {
+			chunk.accumulators.add(accumulator.createEmpty());
+		}
+		int start = index * CHUNK_SIZE;
+		int end = Math.min(products.size(), start + CHUNK_SIZE);
+		if (stateKey != null) {
+			chunk.state = new ProductState(stateKey, end - start);
+		}
+		ProductRecord record = new ProductRecord();
+		ProductInputs inputs = chunk.state == null ? null : new ProductInputs(chunk.state);
+		for (IfcProduct product : products.subList(start, end)) {
+			record.reset(product.getOid(), product.getRid());
+			if (previousState != null && previousState.load(record, changed, chunk.state)) {
+				chunk.reusedCount++;
+				for (Accumulator accumulator : chunk.accumulators) {
+					accumulator.add(product, record);
+				}
+				if (chunk.state != null) {
+					chunk.state.add(record);
+				}
+				continue;
+			}
+			if (inputs != null) {
+				inputs.reset();
+				for (Accumulator accumulator : chunk.accumulators) {
+					accumulator.addInputs(product, inputs);
+				}
+			}
+			if (timed) {
+				for (int i = 0; i < chunk.accumulators.size(); i++) {
+					long time = System.nanoTime();
+					Accumulator accumulator = chunk.accumulators.get(i);
+					accumulator.extract(product, record);
+					accumulator.add(product, record);
+					chunk.nanos[i] += System.nanoTime() - time;
+				}
+			} else {
+				for (Accumulator accumulator : chunk.accumulators) {
+					accumulator.extract(product, record);
+					accumulator.add(product, record);
+				}
+			}
+			if (chunk.state != null) {
+				chunk.state.add(record);
+			}
+		}
+		chunk.products = end - start;
+		chunk.totalNanos = System.nanoTime() - startTime;
+		chunk.allocatedBytes = AnalysisMetrics.getAllocatedBytes() - startAllocated;
+		return chunk;
+	}
+
+	private void merge(Chunk chunk) {
+		for (int i = 0; i < accumulators.size(); i++) {
+			accumulators.get(i).merge(chunk.accumulators.get(i));
+		}
+		if (state != null) {
+			state.addAll(chunk.state);
+		}
+		reusedCount += chunk.reusedCount;
+		if (metrics != null) {
+			metrics.add(AnalysisMetrics.PRODUCTS, chunk.totalNanos, chunk.products, chunk.allocatedBytes);
+			if (accumulatorMetrics) {
+				for (int i = 0; i < accumulators.size(); i++) {
+					metrics.add(accumulators.get(i).getName(), chunk.nanos[i], chunk.products - chunk.reusedCount, 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the state recorded by the last run, or null if no state key was
+	 *         set
+	 */
+	public ProductState getState() {
+		return state;
+	}
+
+	/**
+	 * @return the number of products of the last run that were replayed from
+	 *         the previous state
+	 */
+	public int getReusedCount() {
+		return reusedCount;
+	}
+
+	public long getTotalObjects() {
+		return totalObjects;
+	}
+
+	public int getProductCount() {
+		return productCount;
+	}
+
+	private static class Chunk {
+		private final List<Accumulator> accumulators = new ArrayList<>();
+		private ProductState state;
+		private int reusedCount;
+		private int products;
+		private long[] nanos;
+		private long totalNanos;
+		private long allocatedBytes;
+	}
+}
@@ -0,0 +1,111 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Time, number of objects and allocated bytes per phase of an analysis. Phases
+ * that run on several threads sum the time of all threads, the
+ * {@value #TRAVERSAL} phase is the wall time of the {@value #PRODUCTS} phase.
+ */
+public class AnalysisMetrics {
+
+	public static final String ENUMERATION = "enumeration";
+	public static final String PRODUCTS = "products";
+	public static final String TRAVERSAL = "traversal";
+	public static final String SERIALIZATION = "serialization";
+
+	private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = getThreadMXBean();
+
+	private final Map<String, Phase> phases = new LinkedHashMap<>();
+
+	public synchronized void add(String name, long nanos, long objects, long allocatedBytes) {
+		Phase phase = phases.get(name);
+		if (phase == null) {
+			phase = new Phase();
+			phases.put(name, phase);
+		}
+		phase.nanos += nanos;
+		phase.objects += objects;
+		phase.allocatedBytes += allocatedBytes;
+	}
+
+	public synchronized Map<String, Phase> getPhases() {
+		Map<String, Phase> copy = new LinkedHashMap<>();
+		for (Map.Entry<String, Phase> entry : phases.entrySet()) {
+			copy.put(entry.getKey(), new Phase(entry.getValue()));
+		}
+		return copy;
+	}
+
+	public void write(JsonGenerator generator) throws IOException {
+		generator.writeStartObject();
+		for (Map.Entry<String, Phase> entry : getPhases().entrySet()) {
+			Phase phase = entry.getValue();
+			generator.writeObjectFieldStart(entry.getKey());
+			generator.writeNumberField("time_ms", phase.nanos / 1000000.0);
+			generator.writeNumberField("objects", phase.objects);
+			generator.writeNumberField("allocated_bytes", phase.allocatedBytes);
+			generator.writeEndObject();
+		}
+		generator.writeEndObject();
+	}
+
+	/**
+	 * @return the number of bytes allocated by the current thread so far, 0
+	 *         when the JVM does not support measuring it
+	 */
+	public static long getAllocatedBytes() {
+		if (THREAD_MX_BEAN == null) {
+			return 0;
+		}
+		return THREAD_MX_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static com.sun.management.ThreadMXBean getThreadMXBean() {
+		try {
+			java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+			if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+				if (sunThreadMXBean.isThreadAllocatedMemorySupported() && sunThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+					return sunThreadMXBean;
+				}
+			}
+		} catch (LinkageError e) {
+			// Not a HotSpot based JVM
+		}
+		return null;
+	}
+
+	public static class Phase {
+
+		private long nanos;
+		private long objects;
+		private long allocatedBytes;
+
+		private Phase() {
+		}
+
+		private Phase(Phase phase) {
+			nanos = phase.nanos;
+			objects = phase.objects;
+			allocatedBytes = phase.allocatedBytes;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		public long getObjects() {
+			return objects;
+		}
+
+		public long getAllocatedBytes() {
+			return allocatedBytes;
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+/**
+ * The parts of the analysis that can be switched off. A module that is off is
+ * not registered with the {@link AnalysisEngine}, so the EMF features it reads
+ * are never touched. The geometry ranking is switched off by setting topK to 0.
+ */
+public enum AnalysisModule {
+
+	/**
+	 * Total triangles and triangles per m3, reads IfcProduct.geometry and the
+	 * volume quantities
+	 */
+	TRIANGLES("triangles", "Triangles", "Total number of triangles and triangles per m3"),
+
+	/**
+	 * Property counts and voodoo property sets, reads IfcObject.isDefinedBy
+	 * and the property sets
+	 */
+	VOODOO("voodoo", "Voodoo", "Number of properties and objects with property sets or properties that do not start with Pset_"),
+
+	/**
+	 * Classified objects, reads the IfcRelAssociatesClassification relations
+	 */
+	CLASSIFICATIONS("classifications", "Classifications", "Number of classifications and classified objects"),
+
+	/**
+	 * Number of IfcProxy objects, only looks at the type of the products
+	 */
+	PROXIES("proxies", "Proxies", "Number of proxy objects"),
+
+	/**
+	 * Products without classification, classified products with voodoo
+	 * property sets or properties and the classification coverage per IFC
+	 * type, from the {@link ClassificationIndex}. Only used together with
+	 * {@link #CLASSIFICATIONS}; off unless switched on, it adds entries to the
+	 * output
+	 */
+	COVERAGE("coverage", "Classification coverage", "Products without classification, classified products with voodoo properties and classification coverage per IFC type", false),
+
+	/**
+	 * Products, triangles, volume, proxies and voodoo ratio per IFC type and
+	 * per building storey, reads the spatial containment and decomposition.
+	 * Off unless switched on, it adds entries to the output
+	 */
+	BREAKDOWN("breakdown", "Breakdown", "Products, triangles, volume, proxies and voodoo ratio per IFC type and per building storey", false),
+
+	/**
+	 * Percentiles and log scale histograms of the triangles and the triangles
+	 * per m3 of the products, reads IfcProduct.geometry and the volume
+	 * quantities. Off unless switched on, it adds entries to the output
+	 */
+	DISTRIBUTION("distribution", "Distribution", "Percentiles and histograms of the triangles and triangles per m3 of the products", false),
+
+	/**
+	 * Groups of products with identical or nearly identical meshes that could
+	 * be instanced, reads the index, vertex and normal buffers of the geometry
+	 * data. Off unless switched on, it adds entries to the output
+	 */
+	DUPLICATES("duplicates", "Duplicate geometry", "Groups of products with identical or nearly identical meshes and the triangles saved by instancing them", false);
+
+	private final String identifier;
+	private final String name;
+	private final String description;
+	private final boolean enabledByDefault;
+
+	private AnalysisModule(String identifier, String name, String description) {
+		this(identifier, name, description, true);
+	}
+
+	private AnalysisModule(String identifier, String name, String description, boolean enabledByDefault) {
+		this.identifier = identifier;
+		this.name = name;
+		this.description = description;
+		this.enabledByDefault = enabledByDefault;
+	}
+
+	public String getIdentifier() {
+		return identifier;
+	}
+
+	public String getDisplayName() {
+		return name;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public boolean isEnabledByDefault() {
+		return enabledByDefault;
+	}
+}
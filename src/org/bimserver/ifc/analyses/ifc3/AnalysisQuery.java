@@ -0,0 +1,136 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Builds the BIMserver JSON query with exactly the types and include paths
+ * that the enabled {@link AnalysisModule}s read, so a {@link ModelSource} can
+ * load that subset of a revision instead of the complete model. When the
+ * totals are estimated from a sample, only what {@link SampleEstimator} reads
+ * is included.
+ */
+public class AnalysisQuery {
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	private AnalysisQuery() {
+	}
+
+	public static ObjectNode create(AnalysesConfiguration configuration) {
+		if (configuration.isSampling()) {
+			return createSample(configuration);
+		}
+		boolean triangles = configuration.isEnabled(AnalysisModule.TRIANGLES) || configuration.isEnabled(AnalysisModule.DISTRIBUTION);
+		boolean ranking = configuration.getTopK() > 0;
+		boolean voodoo = configuration.isEnabled(AnalysisModule.VOODOO);
+		boolean duplicates = configuration.isEnabled(AnalysisModule.DUPLICATES);
+
+		ObjectNode query = OBJECT_MAPPER.createObjectNode();
+		ArrayNode queries = query.putArray("queries");
+		ArrayNode includes = addProducts(queries);
+
+		if (triangles || ranking || duplicates) {
+			ObjectNode geometry = include(includes, "IfcProduct", "geometry");
+			if (duplicates || (ranking && configuration.getTopMetric() == RankingMetric.GEOMETRY_BYTES)) {
+				ObjectNode data = include(geometry.putArray("includes"), "GeometryInfo", "data");
+				ArrayNode buffers = data.putArray("includes");
+				include(buffers, "GeometryData", "indices");
+				include(buffers, "GeometryData", "vertices");
+				include(buffers, "GeometryData", "normals");
+			}
+		}
+
+		boolean volume = triangles || (ranking && configuration.getTopMetric() == RankingMetric.TRIANGLES_PER_M3);
+		addDefinitions(includes, volume, voodoo);
+
+		if (configuration.isEnabled(AnalysisModule.BREAKDOWN)) {
+			ObjectNode decomposes = include(includes, "IfcObjectDefinition", "Decomposes");
+			include(decomposes.putArray("includes"), "IfcRelDecomposes", "RelatingObject");
+			ObjectNode containments = queries.addObject();
+			ObjectNode containmentType = containments.putObject("type");
+			containmentType.put("name", "IfcRelContainedInSpatialStructure");
+			containmentType.put("includeAllSubTypes", true);
+			ArrayNode containmentIncludes = containments.putArray("includes");
+			include(containmentIncludes, "IfcRelContainedInSpatialStructure", "RelatedElements");
+			ObjectNode relatingStructure = include(containmentIncludes, "IfcRelContainedInSpatialStructure", "RelatingStructure");
+			ObjectNode structureDecomposes = include(relatingStructure.putArray("includes"), "IfcObjectDefinition", "Decomposes");
+			include(structureDecomposes.putArray("includes"), "IfcRelDecomposes", "RelatingObject");
+		}
+
+		if (configuration.isEnabled(AnalysisModule.CLASSIFICATIONS)) {
+			ArrayNode classificationIncludes = addClassifications(queries);
+			include(classificationIncludes, "IfcRelAssociatesClassification", "RelatingClassification");
+		}
+		return query;
+	}
+
+	/**
+	 * The query of {@link SampleEstimator}, which only reads the triangles and
+	 * volume and the property sets of the products, and the related objects of
+	 * the classification relations. The estimator does not rank, break down or group the products
+	 * and does not read the meshes.
+	 */
+	private static ObjectNode createSample(AnalysesConfiguration configuration) {
+		boolean triangles = configuration.isEnabled(AnalysisModule.TRIANGLES);
+
+		ObjectNode query = OBJECT_MAPPER.createObjectNode();
+		ArrayNode queries = query.putArray("queries");
+		ArrayNode includes = addProducts(queries);
+		if (triangles) {
+			include(includes, "IfcProduct", "geometry");
+		}
+		addDefinitions(includes, triangles, configuration.isEnabled(AnalysisModule.VOODOO));
+		if (configuration.isEnabled(AnalysisModule.CLASSIFICATIONS)) {
+			addClassifications(queries);
+		}
+		return query;
+	}
+
+	/**
+	 * @return the includes of the query of all products
+	 */
+	private static ArrayNode addProducts(ArrayNode queries) {
+		ObjectNode products = queries.addObject();
+		ObjectNode productType = products.putObject("type");
+		productType.put("name", "IfcProduct");
+		productType.put("includeAllSubTypes", true);
+		return products.putArray("includes");
+	}
+
+	/**
+	 * @return the includes of the query of the classification relations, which
+	 *         include their related objects
+	 */
+	private static ArrayNode addClassifications(ArrayNode queries) {
+		ObjectNode classifications = queries.addObject();
+		ObjectNode classificationType = classifications.putObject("type");
+		classificationType.put("name", "IfcRelAssociatesClassification");
+		classificationType.put("includeAllSubTypes", true);
+		ArrayNode includes = classifications.putArray("includes");
+		include(includes, "IfcRelAssociatesClassification", "RelatedObjects");
+		return includes;
+	}
+
+	private static void addDefinitions(ArrayNode includes, boolean volume, boolean voodoo) {
+		if (volume || voodoo) {
+			ObjectNode isDefinedBy = include(includes, "IfcObject", "IsDefinedBy");
+			ObjectNode relatingPropertyDefinition = include(isDefinedBy.putArray("includes"), "IfcRelDefinesByProperties", "RelatingPropertyDefinition");
+			ArrayNode definitions = relatingPropertyDefinition.putArray("includes");
+			if (voodoo) {
+				include(definitions, "IfcPropertySet", "HasProperties");
+			}
+			if (volume) {
+				include(definitions, "IfcElementQuantity", "Quantities");
+			}
+		}
+	}
+
+	private static ObjectNode include(ArrayNode includes, String type, String field) {
+		ObjectNode include = includes.addObject();
+		include.put("type", type);
+		include.put("field", field);
+		return include;
+	}
+}
@@ -0,0 +1,192 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bimserver.bimbots.BimBotsInput;
+import org.bimserver.bimbots.BimBotsOutput;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.emf.Schema;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
+import org.bimserver.plugins.PluginConfiguration;
+import org.bimserver.plugins.SchemaName;
+import org.bimserver.plugins.deserializers.Deserializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs an analyses service on every IFC file in a directory, without a
+ * BIMserver. The files are read with a pluginbase {@link Deserializer} that is
+ * loaded by class name, so the deserializer jar only has to be on the class
+ * path. The default deserializer is in the ifcplugins jar
+ * (org.opensourcebim:ifcplugins), which is not a dependency of this plugin.
+ * Files are analysed on a fixed pool of threads and at most a configured
+ * number of models is in memory at once. One result file is written per model.
+ * 
+ * <pre>
+ * BatchRunner &lt;input directory&gt; &lt;output directory&gt; [--detailed] [--threads n] [--models n] [--deserializer class] [setting=value ...]
+ * </pre>
+ * 
+ * The settings are the user and system settings of the services, see
+ * {@link AnalysesConfiguration}. The result cache is off unless cacheSize or
+ * cacheDirectory is set.
+ */
+public class BatchRunner {
+
+	public static final String DEFAULT_DESERIALIZER = "org.bimserver.ifc.step.deserializer.Ifc2x3tc1StepDeserializer";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(BatchRunner.class);
+
+	private final AbstractAnalysesService service;
+	private final PluginConfiguration pluginConfiguration;
+	private final OutputMode outputMode;
+	private final Class<? extends Deserializer> deserializerClass;
+	private final PackageMetaData packageMetaData;
+	private final int threads;
+	private final Semaphore modelsInMemory;
+	private final AtomicLong models = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+
+	public BatchRunner(AbstractAnalysesService service, PluginConfiguration pluginConfiguration, Class<? extends Deserializer> deserializerClass, Path tempDirectory, int threads, int maxModels) {
+		this.service = service;
+		this.pluginConfiguration = pluginConfiguration;
+		this.outputMode = new AnalysesConfiguration(pluginConfiguration).getOutputMode();
+		this.deserializerClass = deserializerClass;
+		this.packageMetaData = new PackageMetaData(Ifc2x3tc1Package.eINSTANCE, Schema.IFC2X3TC1, tempDirectory);
+		this.threads = threads;
+		this.modelsInMemory = new Semaphore(maxModels);
+	}
+
+	public void run(Path inputDirectory, Path outputDirectory) throws IOException, InterruptedException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(inputDirectory, "*.{ifc,IFC}")) {
+			for (Path file : directoryStream) {
+				files.add(file);
+			}
+		}
+		Collections.sort(files);
+		Files.createDirectories(outputDirectory);
+		LOGGER.info("Analysing {} files with {} threads", files.size(), threads);
+
+		long startTime = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		for (Path file : files) {
+			executor.execute(() -> analyse(file, outputDirectory));
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+		double seconds = (System.nanoTime() - startTime) / 1E9;
+		System.out.println(String.format("%d models (%d failed) in %.1f s: %.2f models/s, %.2f MB/s", models.get(), failures.get(), seconds, models.get() / seconds,
+				bytes.get() / (1024.0 * 1024.0) / seconds));
+	}
+
+	private void analyse(Path file, Path outputDirectory) {
+		String fileName = file.getFileName().toString();
+		modelsInMemory.acquireUninterruptibly();
+		try {
+			long size = Files.size(file);
+			Deserializer deserializer = deserializerClass.getDeclaredConstructor().newInstance();
+			deserializer.init(packageMetaData);
+			IfcModelInterface model;
+			try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(file))) {
+				model = deserializer.read(inputStream, fileName, size, byteNumber -> {
+				});
+			}
+
+			BimBotsInput input = new BimBotsInput(SchemaName.IFC_STEP_2X3TC1, null);
+			input.setIfcModel(model);
+			BimBotsOutput output = service.runBimBot(input, null, pluginConfiguration);
+			Files.write(outputDirectory.resolve(fileName + "." + outputMode.getExtension()), output.getData());
+
+			models.incrementAndGet();
+			bytes.addAndGet(size);
+			LOGGER.debug("Analysed {}", fileName);
+		} catch (Exception e) {
+			failures.incrementAndGet();
+			LOGGER.error("Could not analyse " + file, e);
+		} finally {
+			modelsInMemory.release();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		List<String> paths = new ArrayList<>();
+		boolean detailed = false;
+		int threads = Runtime.getRuntime().availableProcessors();
+		Integer maxModels = null;
+		String deserializer = DEFAULT_DESERIALIZER;
+		Map<String, Object> settings = new LinkedHashMap<>();
+		settings.put(AnalysesConfiguration.CACHE_SIZE, 0L);
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--detailed")) {
+				detailed = true;
+			} else if (arg.equals("--threads") && i + 1 < args.length) {
+				threads = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (arg.equals("--models") && i + 1 < args.length) {
+				maxModels = Math.max(1, Integer.parseInt(args[++i]));
+			} else if (arg.equals("--deserializer") && i + 1 < args.length) {
+				deserializer = args[++i];
+			} else if (arg.indexOf('=') > 0) {
+				String key = arg.substring(0, arg.indexOf('='));
+				settings.put(key, parseSetting(arg.substring(arg.indexOf('=') + 1)));
+			} else {
+				paths.add(arg);
+			}
+		}
+		if (paths.size() != 2) {
+			System.err.println("Usage: BatchRunner <input directory> <output directory> [--detailed] [--threads n] [--models n] [--deserializer class] [setting=value ...]");
+			System.exit(2);
+		}
+
+		Class<? extends Deserializer> deserializerClass;
+		try {
+			deserializerClass = Class.forName(deserializer).asSubclass(Deserializer.class);
+		} catch (ClassNotFoundException e) {
+			System.err.println("Deserializer " + deserializer + " not found, add its jar to the class path"
+					+ (deserializer.equals(DEFAULT_DESERIALIZER) ? " (org.opensourcebim:ifcplugins, e.g. ifcplugins-0.0.100.jar)" : ""));
+			System.exit(2);
+			return;
+		}
+
+		AbstractAnalysesService service = detailed ? new AnalysesServiceDetailed() : new AnalysesService();
+		PluginConfiguration pluginConfiguration = AnalysesConfiguration.createPluginConfiguration(settings);
+		// The cache and delta directory settings are system settings of the plugin
+		service.configure(pluginConfiguration);
+		service.getMonitor().register(service.getClass().getSimpleName());
+		Path tempDirectory = Files.createTempDirectory("ifcanalyses");
+		BatchRunner batchRunner = new BatchRunner(service, pluginConfiguration, deserializerClass, tempDirectory, threads,
+				maxModels == null ? threads : maxModels);
+		batchRunner.run(Paths.get(paths.get(0)), Paths.get(paths.get(1)));
+		System.exit(batchRunner.failures.get() == 0 ? 0 : 1);
+	}
+
+	private static Object parseSetting(String value) {
+		if (value.equals("true") || value.equals("false")) {
+			return Boolean.valueOf(value);
+		}
+		try {
+			return Long.valueOf(value);
+		} catch (NumberFormatException e) {
+			return value;
+		}
+	}
+}
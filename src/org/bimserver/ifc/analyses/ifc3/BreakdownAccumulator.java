@@ -0,0 +1,108 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.util.Arrays;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcProxy;
+import org.eclipse.emf.ecore.EClass;
+
+/**
+ * Breaks the product totals down per IFC type and per building storey, in
+ * {@link BreakdownTable}s filled during the product traversal. The triangles,
+ * volume and voodoo flags come from the {@link ProductRecord}, so this
+ * accumulator has to be added to the engine after the accumulators that
+ * extract them.
+ */
+public class BreakdownAccumulator implements Accumulator {
+
+	private final StoreyIndex storeyIndex;
+	private StoreyIndex.Local storeys;
+	private final BreakdownTable byType = new BreakdownTable();
+	private final BreakdownTable byStorey = new BreakdownTable();
+	private String[] typeNames = new String[0];
+
+	public BreakdownAccumulator() {
+		this(new StoreyIndex());
+	}
+
+	private BreakdownAccumulator(StoreyIndex storeyIndex) {
+		this.storeyIndex = storeyIndex;
+	}
+
+	@Override
+	public void start(IfcModelInterface model) {
+		storeyIndex.index(model);
+	}
+
+	@Override
+	public void extract(IfcProduct product, ProductRecord record) {
+	}
+
+	@Override
+	public void add(IfcProduct product, ProductRecord record) {
+		if (storeys == null) {
+			storeys = storeyIndex.local();
+		}
+		boolean proxy = product instanceof IfcProxy;
+		EClass eClass = product.eClass();
+		int type = eClass.getClassifierID();
+		if (type >= typeNames.length) {
+			typeNames = Arrays.copyOf(typeNames, Math.max(type + 1, typeNames.length * 2));
+		}
+		typeNames[type] = eClass.getName();
+		byType.add(type, record, proxy);
+		byStorey.add(storeys.get(product), record, proxy);
+	}
+
+	@Override
+	public String getName() {
+		return "breakdown";
+	}
+
+	@Override
+	public Accumulator createEmpty() {
+		return new BreakdownAccumulator(storeyIndex);
+	}
+
+	@Override
+	public void merge(Accumulator other) {
+		BreakdownAccumulator breakdown = (BreakdownAccumulator) other;
+		byType.addAll(breakdown.byType);
+		byStorey.addAll(breakdown.byStorey);
+		if (breakdown.typeNames.length > typeNames.length) {
+			typeNames = Arrays.copyOf(typeNames, breakdown.typeNames.length);
+		}
+		for (int type = 0; type < breakdown.typeNames.length; type++) {
+			if (breakdown.typeNames[type] != null) {
+				typeNames[type] = breakdown.typeNames[type];
+			}
+		}
+	}
+
+	/**
+	 * @return the totals indexed by EClass id
+	 */
+	public BreakdownTable getByType() {
+		return byType;
+	}
+
+	/**
+	 * @return the name of the EClass with the id, null when there are no
+	 *         products of it
+	 */
+	public String getTypeName(int type) {
+		return type < typeNames.length ? typeNames[type] : null;
+	}
+
+	/**
+	 * @return the totals indexed by storey, see {@link #getStoreys()}
+	 */
+	public BreakdownTable getByStorey() {
+		return byStorey;
+	}
+
+	public StoreyIndex getStoreys() {
+		return storeyIndex;
+	}
+}
@@ -0,0 +1,91 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.util.Arrays;
+
+/**
+ * Totals per bucket, in one array per column indexed by the bucket: the EClass
+ * id for the breakdown by type, the storey index for the breakdown by storey.
+ */
+public class BreakdownTable {
+
+	private long[] products = new long[0];
+	private long[] triangles = new long[0];
+	private double[] volume = new double[0];
+	private long[] proxies = new long[0];
+	private long[] voodoo = new long[0];
+
+	public void add(int bucket, ProductRecord record, boolean proxy) {
+		if (bucket >= products.length) {
+			grow(bucket + 1);
+		}
+		products[bucket]++;
+		if (record.triangles >= 0) {
+			triangles[bucket] += record.triangles;
+			volume[bucket] += record.volume;
+		}
+		if (proxy) {
+			proxies[bucket]++;
+		}
+		if (record.hasFlag(ProductRecord.VODOO_SET) || record.hasFlag(ProductRecord.VODOO_PROP)) {
+			voodoo[bucket]++;
+		}
+	}
+
+	public void addAll(BreakdownTable other) {
+		if (other.products.length > products.length) {
+			grow(other.products.length);
+		}
+		for (int bucket = 0; bucket < other.products.length; bucket++) {
+			products[bucket] += other.products[bucket];
+			triangles[bucket] += other.triangles[bucket];
+			volume[bucket] += other.volume[bucket];
+			proxies[bucket] += other.proxies[bucket];
+			voodoo[bucket] += other.voodoo[bucket];
+		}
+	}
+
+	private void grow(int size) {
+		int capacity = Math.max(size, products.length * 2);
+		products = Arrays.copyOf(products, capacity);
+		triangles = Arrays.copyOf(triangles, capacity);
+		volume = Arrays.copyOf(volume, capacity);
+		proxies = Arrays.copyOf(proxies, capacity);
+		voodoo = Arrays.copyOf(voodoo, capacity);
+	}
+
+	/**
+	 * @return the number of buckets, some of which may have no products
+	 */
+	public int size() {
+		return products.length;
+	}
+
+	public long getProducts(int bucket) {
+		return bucket < products.length ? products[bucket] : 0;
+	}
+
+	public long getTriangles(int bucket) {
+		return bucket < triangles.length ? triangles[bucket] : 0;
+	}
+
+	public double getVolume(int bucket) {
+		return bucket < volume.length ? volume[bucket] : 0;
+	}
+
+	public long getProxies(int bucket) {
+		return bucket < proxies.length ? proxies[bucket] : 0;
+	}
+
+	public long getVoodoo(int bucket) {
+		return bucket < voodoo.length ? voodoo[bucket] : 0;
+	}
+
+	/**
+	 * @return the fraction of the products with voodoo property sets or
+	 *         properties
+	 */
+	public double getVoodooRatio(int bucket) {
+		long count = getProducts(bucket);
+		return count == 0 ? 0 : getVoodoo(bucket) / (double) count;
+	}
+}
@@ -0,0 +1,135 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.models.ifc2x3tc1.IfcClassificationNotationSelect;
+import org.bimserver.models.ifc2x3tc1.IfcClassificationReference;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcRelAssociatesClassification;
+import org.bimserver.models.ifc2x3tc1.IfcRoot;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Collects the classified objects of a model. Classifications are related to
+ * objects through IfcRelAssociatesClassification, so this accumulator does its
+ * work on the relations after the product traversal. When indexed, the
+ * traversal only records the products for the {@link ClassificationIndex}.
+ */
+public class ClassificationAccumulator implements Accumulator {
+
+	private final boolean byKinds;
+	private final ClassificationIndex index;
+	private int classificationCount;
+	private final OidSet classifiedObjects = new OidSet();
+	private final Map<String, ObjectList> classificationByKinds = new HashMap<String, ObjectList>();
+
+	/**
+	 * @param byKinds
+	 *            also group the classified objects by the name of their
+	 *            IfcClassificationReference
+	 */
+	public ClassificationAccumulator(boolean byKinds) {
+		this(byKinds, false);
+	}
+
+	/**
+	 * @param indexed
+	 *            also build a {@link ClassificationIndex} of the products, it
+	 *            reads the voodoo flags so it has to be added to the engine
+	 *            after the {@link PropertySetAccumulator}
+	 */
+	public ClassificationAccumulator(boolean byKinds, boolean indexed) {
+		this.byKinds = byKinds;
+		this.index = indexed ? new ClassificationIndex() : null;
+	}
+
+	@Override
+	public void extract(IfcProduct product, ProductRecord record) {
+	}
+
+	@Override
+	public void add(IfcProduct product, ProductRecord record) {
+		if (index != null) {
+			index.addProduct(record.oid, product.eClass().getName(), record.hasFlag(ProductRecord.VODOO_SET) || record.hasFlag(ProductRecord.VODOO_PROP));
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "classifications";
+	}
+
+	@Override
+	public Accumulator createEmpty() {
+		return new ClassificationAccumulator(byKinds, index != null);
+	}
+
+	@Override
+	public void merge(Accumulator other) {
+		if (index != null) {
+			index.addAll(((ClassificationAccumulator) other).index);
+		}
+	}
+
+	@Override
+	public void finish(IfcModelInterface model) {
+		List<IfcRelAssociatesClassification> classificationsList = model
+				.getAllWithSubTypes(IfcRelAssociatesClassification.class);
+		classificationCount = classificationsList.size();
+
+		for (IfcRelAssociatesClassification ifcRelAssociatesClassification : classificationsList) {
+			IfcClassificationNotationSelect relatingClassification = ifcRelAssociatesClassification
+					.getRelatingClassification();
+			boolean reference = relatingClassification instanceof IfcClassificationReference;
+			String name = reference ? ((IfcClassificationReference) relatingClassification).getName() : null;
+			// By kinds only the objects classified by a reference are counted
+			boolean counted = !byKinds || reference;
+			ObjectList kind = null;
+			if (byKinds && reference) {
+				kind = classificationByKinds.get(name);
+				if (kind == null) {
+					kind = new ObjectList();
+					classificationByKinds.put(name, kind);
+				}
+			}
+			RoaringBitmap named = index != null && reference && name != null ? index.getOrCreate(name) : null;
+			for (IfcRoot ifcRoot : ifcRelAssociatesClassification.getRelatedObjects()) {
+				if (kind != null) {
+					kind.add(ifcRoot);
+				}
+				if (counted) {
+					classifiedObjects.add(ifcRoot.getOid());
+				}
+				if (index != null) {
+					index.classify(ifcRoot.getOid(), named);
+				}
+			}
+		}
+	}
+
+	public int getClassificationCount() {
+		return classificationCount;
+	}
+
+	public int getClassifiedObjectCount() {
+		return classifiedObjects.size();
+	}
+
+	public boolean isClassified(long oid) {
+		return classifiedObjects.contains(oid);
+	}
+
+	/**
+	 * @return the index of the classified products, or null when not indexed
+	 */
+	public ClassificationIndex getIndex() {
+		return index;
+	}
+
+	public Map<String, ObjectList> getClassificationByKinds() {
+		return classificationByKinds;
+	}
+}
@@ -0,0 +1,157 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Bitmaps over the products of a model, indexed by their ordinal in the
+ * product traversal: one with the classified products, one per classification
+ * name and one with the products that have voodoo property sets or
+ * properties. The products without classification, or with both a
+ * classification and voodoo properties, are plain bitmap operations. The
+ * bitmaps are compressed {@link RoaringBitmap}s, so the bitmap of a rare
+ * classification name does not take a bit for every product.
+ * <p>
+ * The IFC type of every ordinal is kept, so any bitmap can be counted per
+ * type without visiting the model again.
+ */
+public class ClassificationIndex {
+
+	private long[] oids = new long[16];
+	private String[] types = new String[16];
+	private final RoaringBitmap voodoo = new RoaringBitmap();
+	private int size;
+	private OidIndex ordinals;
+	private final RoaringBitmap classified = new RoaringBitmap();
+	private final Map<String, RoaringBitmap> byName = new TreeMap<>();
+
+	void addProduct(long oid, String type, boolean hasVoodoo) {
+		if (size == oids.length) {
+			oids = Arrays.copyOf(oids, size * 2);
+			types = Arrays.copyOf(types, size * 2);
+		}
+		oids[size] = oid;
+		types[size] = type;
+		if (hasVoodoo) {
+			voodoo.add(size);
+		}
+		size++;
+	}
+
+	/**
+	 * Appends the products of the index of a later chunk.
+	 */
+	void addAll(ClassificationIndex other) {
+		if (size + other.size > oids.length) {
+			int capacity = Math.max(size + other.size, oids.length * 2);
+			oids = Arrays.copyOf(oids, capacity);
+			types = Arrays.copyOf(types, capacity);
+		}
+		System.arraycopy(other.oids, 0, oids, size, other.size);
+		System.arraycopy(other.types, 0, types, size, other.size);
+		voodoo.or(RoaringBitmap.addOffset(other.voodoo, size));
+		size += other.size;
+	}
+
+	/**
+	 * @return the bitmap of a classification name, created when it is not
+	 *         there yet
+	 */
+	RoaringBitmap getOrCreate(String name) {
+		RoaringBitmap bitmap = byName.get(name);
+		if (bitmap == null) {
+			bitmap = new RoaringBitmap();
+			byName.put(name, bitmap);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Marks the product with the oid as classified, and as part of the
+	 * bitmap of its classification name when that is not null. Objects that
+	 * are not products are ignored.
+	 */
+	void classify(long oid, RoaringBitmap name) {
+		if (ordinals == null) {
+			ordinals = new OidIndex(size);
+			for (int ordinal = 0; ordinal < size; ordinal++) {
+				ordinals.put(oids[ordinal], ordinal);
+			}
+		}
+		int ordinal = ordinals.get(oid);
+		if (ordinal >= 0) {
+			classified.add(ordinal);
+			if (name != null) {
+				name.add(ordinal);
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getOid(int ordinal) {
+		return oids[ordinal];
+	}
+
+	public String getType(int ordinal) {
+		return types[ordinal];
+	}
+
+	public RoaringBitmap getClassified() {
+		return classified.clone();
+	}
+
+	public RoaringBitmap getUnclassified() {
+		return RoaringBitmap.andNot(getAll(), classified);
+	}
+
+	/**
+	 * @return all products
+	 */
+	public RoaringBitmap getAll() {
+		RoaringBitmap all = new RoaringBitmap();
+		all.add(0L, size);
+		return all;
+	}
+
+	/**
+	 * @return the products with voodoo property sets or properties, empty
+	 *         when the voodoo module is switched off
+	 */
+	public RoaringBitmap getVoodoo() {
+		return voodoo.clone();
+	}
+
+	/**
+	 * @return the products classified by an IfcClassificationReference with
+	 *         the name, empty for unknown names
+	 */
+	public RoaringBitmap get(String name) {
+		RoaringBitmap bitmap = byName.get(name);
+		return bitmap == null ? new RoaringBitmap() : bitmap.clone();
+	}
+
+	public Map<String, RoaringBitmap> getByName() {
+		return Collections.unmodifiableMap(byName);
+	}
+
+	/**
+	 * @return the number of products in the bitmap per IFC type, sorted by
+	 *         type
+	 */
+	public Map<String, Integer> countByType(RoaringBitmap bitmap) {
+		Map<String, Integer> counts = new TreeMap<>();
+		bitmap.forEach((int ordinal) -> {
+			if (ordinal < size) {
+				counts.merge(types[ordinal], 1, Integer::sum);
+			}
+		});
+		return counts;
+	}
+}
@@ -0,0 +1,371 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.models.geometry.Buffer;
+import org.bimserver.models.geometry.GeometryData;
+import org.bimserver.models.geometry.GeometryInfo;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcRoot;
+
+/**
+ * Groups the products whose meshes are identical or nearly identical, to find
+ * the geometry that could be instanced. Every mesh gets two 64 bit hashes,
+ * computed in {@link #extract} over views of the index, vertex and normal
+ * buffers, without copying them:
+ * <ul>
+ * <li>the mesh key, over the indices, the number of vertices, the size of the
+ * mesh and the bounding box, centroid and radius of the vertices, all rounded
+ * to 1/4096 of the size. Floating point noise in the vertices does not change
+ * it, unless a value happens to lie on a rounding boundary</li>
+ * <li>the exact key, over the raw bytes of all buffers, which tells whether
+ * all meshes of a group are identical</li>
+ * </ul>
+ * Products that already share one GeometryData object are instanced, so a
+ * group only counts as duplicate when it has more than one GeometryData.
+ */
+public class DuplicateGeometryAccumulator implements Accumulator {
+
+	private static final int RESOLUTION = 4096;
+	private static final long M1 = 0x9E3779B97F4A7C15L;
+	private static final long M2 = 0xC2B2AE3D27D4EB4FL;
+
+	private final int k;
+	private final OidIndex groupIndex = new OidIndex();
+	private int size;
+	private long[] meshKeys = new long[16];
+	private long[] exactKeys = new long[16];
+	private long[] firstOids = new long[16];
+	private long[] firstData = new long[16];
+	private int[] products = new int[16];
+	private int[] triangles = new int[16];
+	private boolean[] identical = new boolean[16];
+	// Only created when a group has a second GeometryData
+	private OidSet[] data = new OidSet[16];
+
+	private int duplicateGroups;
+	private int identicalGroups;
+	private long duplicateProducts;
+	private long sharedProducts;
+	private long trianglesSaved;
+	private int[] worst;
+	private String[] worstNames;
+	private String[] worstTypes;
+
+	/**
+	 * @param k
+	 *            the number of groups that save the most triangles to keep in
+	 *            {@link #getWorst()}
+	 */
+	public DuplicateGeometryAccumulator(int k) {
+		this.k = k;
+	}
+
+	@Override
+	public String getName() {
+		return "duplicates";
+	}
+
+	@Override
+	public void extract(IfcProduct product, ProductRecord record) {
+		GeometryInfo geometryInfo = product.getGeometry();
+		GeometryData geometryData = geometryInfo == null ? null : geometryInfo.getData();
+		if (geometryData == null) {
+			return;
+		}
+		byte[] indices = getData(geometryData.getIndices());
+		byte[] vertices = getData(geometryData.getVertices());
+		if (indices == null || vertices == null || indices.length == 0) {
+			return;
+		}
+		byte[] normals = getData(geometryData.getNormals());
+		long meshKey = hashMesh(indices, vertices);
+		record.meshKey = meshKey == 0 ? 1 : meshKey;
+		record.exactKey = hashBytes(hashBytes(hashBytes(0, indices), vertices), normals);
+		record.dataOid = geometryData.getOid();
+		record.meshTriangles = indices.length / 12;
+	}
+
+	@Override
+	public void addInputs(IfcProduct product, ProductInputs inputs) {
+		GeometryInfo geometryInfo = product.getGeometry();
+		GeometryData geometryData = geometryInfo == null ? null : geometryInfo.getData();
+		inputs.add(geometryInfo);
+		inputs.add(geometryData);
+		if (geometryData != null) {
+			inputs.add(geometryData.getIndices());
+			inputs.add(geometryData.getVertices());
+			inputs.add(geometryData.getNormals());
+		}
+	}
+
+	@Override
+	public void add(IfcProduct product, ProductRecord record) {
+		if (record.meshKey != 0) {
+			add(record.meshKey, record.exactKey, record.oid, record.dataOid, 1, record.meshTriangles, true, null);
+		}
+	}
+
+	private void add(long meshKey, long exactKey, long oid, long dataOid, int nrProducts, int nrTriangles, boolean same, OidSet dataOids) {
+		int group = groupIndex.get(meshKey);
+		if (group == -1) {
+			group = size++;
+			if (group == meshKeys.length) {
+				grow();
+			}
+			groupIndex.put(meshKey, group);
+			meshKeys[group] = meshKey;
+			exactKeys[group] = exactKey;
+			firstOids[group] = oid;
+			firstData[group] = dataOid;
+			products[group] = nrProducts;
+			triangles[group] = nrTriangles;
+			identical[group] = same;
+			data[group] = dataOids;
+			return;
+		}
+		products[group] += nrProducts;
+		identical[group] &= same && exactKeys[group] == exactKey;
+		if (dataOid != firstData[group] || dataOids != null) {
+			if (data[group] == null) {
+				data[group] = new OidSet();
+				data[group].add(firstData[group]);
+			}
+			data[group].add(dataOid);
+			if (dataOids != null) {
+				data[group].addAll(dataOids);
+			}
+		}
+	}
+
+	private void grow() {
+		int capacity = meshKeys.length * 2;
+		meshKeys = Arrays.copyOf(meshKeys, capacity);
+		exactKeys = Arrays.copyOf(exactKeys, capacity);
+		firstOids = Arrays.copyOf(firstOids, capacity);
+		firstData = Arrays.copyOf(firstData, capacity);
+		products = Arrays.copyOf(products, capacity);
+		triangles = Arrays.copyOf(triangles, capacity);
+		identical = Arrays.copyOf(identical, capacity);
+		data = Arrays.copyOf(data, capacity);
+	}
+
+	@Override
+	public Accumulator createEmpty() {
+		return new DuplicateGeometryAccumulator(k);
+	}
+
+	@Override
+	public void merge(Accumulator other) {
+		DuplicateGeometryAccumulator duplicates = (DuplicateGeometryAccumulator) other;
+		for (int group = 0; group < duplicates.size; group++) {
+			add(duplicates.meshKeys[group], duplicates.exactKeys[group], duplicates.firstOids[group], duplicates.firstData[group], duplicates.products[group],
+					duplicates.triangles[group], duplicates.identical[group], duplicates.data[group]);
+		}
+	}
+
+	@Override
+	public void finish(IfcModelInterface model) {
+		// Groups are numbered in traversal order, so ties rank the first found group first
+		TopK top = new TopK(k);
+		for (int group = 0; group < size; group++) {
+			int meshes = getMeshes(group);
+			sharedProducts += products[group] - meshes;
+			if (meshes > 1) {
+				duplicateGroups++;
+				duplicateProducts += products[group];
+				trianglesSaved += getTrianglesSaved(group);
+				if (identical[group]) {
+					identicalGroups++;
+				}
+				top.offer(getTrianglesSaved(group), group);
+			}
+		}
+		int[] indexes = top.sortedIndexes();
+		worst = new int[indexes.length];
+		worstNames = new String[indexes.length];
+		worstTypes = new String[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			worst[i] = (int) top.getOid(indexes[i]);
+			IdEObject object = model.get(firstOids[worst[i]]);
+			if (object != null) {
+				worstTypes[i] = object.eClass().getName();
+				if (object instanceof IfcRoot) {
+					worstNames[i] = ((IfcRoot) object).getName();
+				}
+			}
+		}
+	}
+
+	private static byte[] getData(Buffer buffer) {
+		return buffer == null ? null : buffer.getData();
+	}
+
+	/**
+	 * Hashes the indices as ints and the shape of the vertices. The buffers are
+	 * little endian, as written by the BIMserver geometry generator.
+	 */
+	private static long hashMesh(byte[] indices, byte[] vertices) {
+		IntBuffer indexBuffer = ByteBuffer.wrap(indices).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+		FloatBuffer vertexBuffer = ByteBuffer.wrap(vertices).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+		int nrVertices = vertexBuffer.remaining() / 3;
+		long hash = mix(indexBuffer.remaining(), nrVertices);
+		while (indexBuffer.hasRemaining()) {
+			hash = mix(hash, indexBuffer.get());
+		}
+		if (nrVertices == 0) {
+			return avalanche(hash);
+		}
+
+		double[] min = { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		double[] max = { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+		double[] centroid = new double[3];
+		for (int i = 0; i < nrVertices * 3; i++) {
+			double value = vertexBuffer.get(i);
+			int axis = i % 3;
+			min[axis] = Math.min(min[axis], value);
+			max[axis] = Math.max(max[axis], value);
+			centroid[axis] += value;
+		}
+		double size = 0;
+		for (int axis = 0; axis < 3; axis++) {
+			centroid[axis] /= nrVertices;
+			size = Math.max(size, max[axis] - min[axis]);
+		}
+		double spread = 0;
+		for (int i = 0; i < nrVertices * 3; i++) {
+			double distance = vertexBuffer.get(i) - centroid[i % 3];
+			spread += distance * distance;
+		}
+		double unit = size > 0 ? size / RESOLUTION : 1;
+		// The rest is relative to the size, which tells a scaled copy apart
+		hash = mix(hash, Math.round(Math.log(size > 0 ? size : 1) * RESOLUTION));
+		for (int axis = 0; axis < 3; axis++) {
+			hash = mix(hash, Math.round(min[axis] / unit));
+			hash = mix(hash, Math.round(max[axis] / unit));
+			hash = mix(hash, Math.round(centroid[axis] / unit));
+		}
+		hash = mix(hash, Math.round(Math.sqrt(spread / nrVertices) / unit));
+		return avalanche(hash);
+	}
+
+	private static long hashBytes(long hash, byte[] bytes) {
+		if (bytes == null) {
+			return mix(hash, -1);
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		hash = mix(hash, bytes.length);
+		while (buffer.remaining() >= 8) {
+			hash = mix(hash, buffer.getLong());
+		}
+		while (buffer.hasRemaining()) {
+			hash = mix(hash, buffer.get());
+		}
+		return avalanche(hash);
+	}
+
+	private static long mix(long hash, long value) {
+		return Long.rotateLeft(hash ^ (value * M1), 31) * M2;
+	}
+
+	private static long avalanche(long hash) {
+		hash ^= hash >>> 33;
+		hash *= M1;
+		hash ^= hash >>> 29;
+		return hash;
+	}
+
+	/**
+	 * @return the number of groups with more than one GeometryData
+	 */
+	public int getDuplicateGroups() {
+		return duplicateGroups;
+	}
+
+	/**
+	 * @return the number of duplicate groups in which all meshes are bitwise
+	 *         identical
+	 */
+	public int getIdenticalGroups() {
+		return identicalGroups;
+	}
+
+	/**
+	 * @return the number of products in the duplicate groups
+	 */
+	public long getDuplicateProducts() {
+		return duplicateProducts;
+	}
+
+	/**
+	 * @return the number of products that share their GeometryData with an
+	 *         earlier product of their group, so are already instanced
+	 */
+	public long getSharedProducts() {
+		return sharedProducts;
+	}
+
+	/**
+	 * @return the triangles of all GeometryData that could be replaced by an
+	 *         instance of the first one of their group
+	 */
+	public long getTrianglesSaved() {
+		return trianglesSaved;
+	}
+
+	/**
+	 * @return the groups that save the most triangles, best first
+	 */
+	public int[] getWorst() {
+		return worst;
+	}
+
+	/**
+	 * @return the name of the first product of the group at the given index of
+	 *         {@link #getWorst()}
+	 */
+	public String getWorstName(int index) {
+		return worstNames[index];
+	}
+
+	/**
+	 * @return the IFC type of the first product of the group at the given
+	 *         index of {@link #getWorst()}
+	 */
+	public String getWorstType(int index) {
+		return worstTypes[index];
+	}
+
+	public long getFirstOid(int group) {
+		return firstOids[group];
+	}
+
+	public int getProducts(int group) {
+		return products[group];
+	}
+
+	/**
+	 * @return the number of different GeometryData objects in the group
+	 */
+	public int getMeshes(int group) {
+		return data[group] == null ? 1 : data[group].size();
+	}
+
+	public int getTriangles(int group) {
+		return triangles[group];
+	}
+
+	public long getTrianglesSaved(int group) {
+		return (long) (getMeshes(group) - 1) * triangles[group];
+	}
+
+	public boolean isIdentical(int group) {
+		return identical[group];
+	}
+}
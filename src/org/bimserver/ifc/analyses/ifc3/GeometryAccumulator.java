@@ -0,0 +1,208 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.models.geometry.Buffer;
+import org.bimserver.models.geometry.GeometryData;
+import org.bimserver.models.geometry.GeometryInfo;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcRoot;
+import org.bimserver.utils.IfcUtils;
+
+/**
+ * Sums triangles and volume and keeps the products that rank highest on the
+ * configured {@link RankingMetric}. With distributions, the triangles and the
+ * triangles per m3 of every product also go into a {@link LogHistogram}. The
+ * volume is only read when it is needed for the totals, the ranking or the
+ * distributions.
+ */
+public class GeometryAccumulator implements Accumulator {
+
+	private final boolean totals;
+	private final RankingMetric metric;
+	private final TopK top;
+	private long totalTriangles;
+	private double totalM3;
+	private String[] topNames;
+	private final LogHistogram triangleDistribution;
+	private final LogHistogram densityDistribution;
+
+	/**
+	 * @param totals
+	 *            whether the total triangles and volume are needed, when false
+	 *            only the ranking is made
+	 */
+	public GeometryAccumulator(boolean totals, RankingMetric metric, int k) {
+		this(totals, metric, k, false);
+	}
+
+	/**
+	 * @param distributions
+	 *            whether the distributions of triangles and triangles per m3
+	 *            per product are kept
+	 */
+	public GeometryAccumulator(boolean totals, RankingMetric metric, int k, boolean distributions) {
+		this.totals = totals;
+		this.metric = metric;
+		this.top = new TopK(k);
+		this.triangleDistribution = distributions ? new LogHistogram() : null;
+		this.densityDistribution = distributions ? new LogHistogram() : null;
+	}
+
+	@Override
+	public void extract(IfcProduct product, ProductRecord record) {
+		GeometryInfo geometryInfo = product.getGeometry();
+		if (geometryInfo != null) {
+			int nrTriangles = geometryInfo.getPrimitiveCount();
+			record.triangles = nrTriangles;
+			boolean ranked = top.getK() > 0;
+			if (totals || triangleDistribution != null || (ranked && metric == RankingMetric.TRIANGLES_PER_M3)) {
+				Double volume = IfcUtils.getIfcQuantityVolume(product);
+				if (volume != null && volume > 0) {
+					record.volume = volume;
+					if (ranked && metric == RankingMetric.TRIANGLES_PER_M3) {
+						record.rankValue = nrTriangles / volume.doubleValue();
+					}
+				}
+			}
+			if (!ranked) {
+				return;
+			} else if (metric == RankingMetric.TRIANGLES) {
+				record.rankValue = nrTriangles;
+			} else if (metric == RankingMetric.GEOMETRY_BYTES) {
+				record.rankValue = getGeometryBytes(geometryInfo);
+			}
+		}
+	}
+
+	@Override
+	public void addInputs(IfcProduct product, ProductInputs inputs) {
+		GeometryInfo geometryInfo = product.getGeometry();
+		inputs.add(geometryInfo);
+		if (geometryInfo == null) {
+			return;
+		}
+		boolean ranked = top.getK() > 0;
+		if (totals || triangleDistribution != null || (ranked && metric == RankingMetric.TRIANGLES_PER_M3)) {
+			inputs.addDefinitions(product);
+		}
+		if (ranked && metric == RankingMetric.GEOMETRY_BYTES) {
+			GeometryData data = geometryInfo.getData();
+			inputs.add(data);
+			if (data != null) {
+				inputs.add(data.getIndices());
+				inputs.add(data.getVertices());
+				inputs.add(data.getNormals());
+			}
+		}
+	}
+
+	@Override
+	public void add(IfcProduct product, ProductRecord record) {
+		if (record.triangles >= 0) {
+			totalTriangles += record.triangles;
+			totalM3 += record.volume;
+			if (!Double.isNaN(record.rankValue)) {
+				top.offer(record.rankValue, record.oid);
+			}
+			if (triangleDistribution != null) {
+				triangleDistribution.add(record.triangles);
+				if (record.volume > 0) {
+					densityDistribution.add(record.triangles / record.volume);
+				}
+			}
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "geometry";
+	}
+
+	@Override
+	public Accumulator createEmpty() {
+		return new GeometryAccumulator(totals, metric, top.getK(), triangleDistribution != null);
+	}
+
+	@Override
+	public void merge(Accumulator other) {
+		GeometryAccumulator geometry = (GeometryAccumulator) other;
+		totalTriangles += geometry.totalTriangles;
+		totalM3 += geometry.totalM3;
+		top.merge(geometry.top);
+		if (triangleDistribution != null) {
+			triangleDistribution.merge(geometry.triangleDistribution);
+			densityDistribution.merge(geometry.densityDistribution);
+		}
+	}
+
+	@Override
+	public void finish(IfcModelInterface model) {
+		topNames = new String[top.size()];
+		for (int i = 0; i < topNames.length; i++) {
+			IdEObject object = model.get(top.getOid(i));
+			if (object instanceof IfcRoot) {
+				topNames[i] = ((IfcRoot) object).getName();
+			}
+		}
+	}
+
+	private static long getGeometryBytes(GeometryInfo geometryInfo) {
+		GeometryData data = geometryInfo.getData();
+		if (data == null) {
+			return 0;
+		}
+		return getLength(data.getIndices()) + getLength(data.getVertices()) + getLength(data.getNormals());
+	}
+
+	private static long getLength(Buffer buffer) {
+		return buffer == null || buffer.getData() == null ? 0 : buffer.getData().length;
+	}
+
+	public long getTotalTriangles() {
+		return totalTriangles;
+	}
+
+	public double getTotalM3() {
+		return totalM3;
+	}
+
+	public double getTrianglesPerM3() {
+		return totalM3 > 0 ? (totalTriangles / totalM3) : 0;
+	}
+
+	/**
+	 * @return the triangles per product with geometry, or null without
+	 *         distributions
+	 */
+	public LogHistogram getTriangleDistribution() {
+		return triangleDistribution;
+	}
+
+	/**
+	 * @return the triangles per m3 per product with geometry and a volume, or
+	 *         null without distributions
+	 */
+	public LogHistogram getDensityDistribution() {
+		return densityDistribution;
+	}
+
+	public boolean isTotals() {
+		return totals;
+	}
+
+	public RankingMetric getMetric() {
+		return metric;
+	}
+
+	public TopK getTop() {
+		return top;
+	}
+
+	/**
+	 * @return the name of the product at the given index of {@link #getTop()}
+	 */
+	public String getTopName(int index) {
+		return topNames == null ? null : topNames[index];
+	}
+}
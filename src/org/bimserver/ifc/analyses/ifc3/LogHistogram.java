@@ -0,0 +1,123 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+/**
+ * Mergeable histogram of positive values in logarithmic buckets: every power
+ * of two is split in {@link #SUB_BUCKETS} linear buckets, taken from the
+ * exponent and the highest mantissa bits of the double, so a bucket is at most
+ * 1/16 of its value wide. Memory is constant, quantiles are within that
+ * relative error and merging adds the counts, so the result does not depend
+ * on how the products were split over chunks. Zero is counted separately.
+ */
+public class LogHistogram {
+
+	public static final int SUB_BUCKETS = 16;
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int MIN_EXPONENT = -24;
+	private static final int MAX_EXPONENT = 48;
+	private static final int BUCKETS = (MAX_EXPONENT - MIN_EXPONENT) * SUB_BUCKETS;
+
+	private long[] counts;
+	private long zeroCount;
+	private long count;
+	private double max;
+
+	public void add(double value) {
+		if (!(value >= 0) || Double.isInfinite(value)) {
+			return;
+		}
+		count++;
+		if (value == 0) {
+			zeroCount++;
+			return;
+		}
+		if (counts == null) {
+			counts = new long[BUCKETS];
+		}
+		counts[getBucket(value)]++;
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	private static int getBucket(double value) {
+		int exponent = Math.getExponent(value);
+		if (exponent < MIN_EXPONENT) {
+			return 0;
+		}
+		if (exponent >= MAX_EXPONENT) {
+			return BUCKETS - 1;
+		}
+		int subBucket = (int) ((Double.doubleToRawLongBits(value) >>> (52 - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+		return (exponent - MIN_EXPONENT) * SUB_BUCKETS + subBucket;
+	}
+
+	private static double getUpperBound(int bucket) {
+		return Math.scalb(1 + (bucket % SUB_BUCKETS + 1) / (double) SUB_BUCKETS, bucket / SUB_BUCKETS + MIN_EXPONENT);
+	}
+
+	public void merge(LogHistogram other) {
+		if (other.counts != null) {
+			if (counts == null) {
+				counts = new long[BUCKETS];
+			}
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				counts[bucket] += other.counts[bucket];
+			}
+		}
+		zeroCount += other.zeroCount;
+		count += other.count;
+		max = Math.max(max, other.max);
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * @return the upper bound of the bucket of the smallest value with at least
+	 *         a fraction q of the values at or below it, never more than the
+	 *         maximum; 0 when there are no values
+	 */
+	public double getQuantile(double q) {
+		long rank = Math.max(1, (long) Math.ceil(q * count));
+		long seen = zeroCount;
+		if (seen >= rank || counts == null) {
+			return 0;
+		}
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += counts[bucket];
+			if (seen >= rank) {
+				return Math.min(max, getUpperBound(bucket));
+			}
+		}
+		return max;
+	}
+
+	public long getZeroCount() {
+		return zeroCount;
+	}
+
+	/**
+	 * @return the number of positive values per power of two, indexed by
+	 *         octave, see {@link #getOctaveLowerBound(int)}
+	 */
+	public long[] getOctaveCounts() {
+		long[] octaves = new long[MAX_EXPONENT - MIN_EXPONENT];
+		for (int bucket = 0; counts != null && bucket < BUCKETS; bucket++) {
+			octaves[bucket / SUB_BUCKETS] += counts[bucket];
+		}
+		return octaves;
+	}
+
+	/**
+	 * @return the smallest value in the octave, the largest is twice that
+	 */
+	public static double getOctaveLowerBound(int octave) {
+		return Math.scalb(1.0, octave + MIN_EXPONENT);
+	}
+}
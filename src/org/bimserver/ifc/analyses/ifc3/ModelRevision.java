@@ -0,0 +1,56 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+/**
+ * The project and revision a run analyses, with the revision before it in the
+ * project. Only known when BIMserver starts the run for a new revision, the
+ * model metadata of a BimBots input does not identify the revision.
+ */
+public class ModelRevision {
+
+	private final long poid;
+	private final long roid;
+	private final long parentRoid;
+	private final long totalObjects;
+
+	/**
+	 * @param parentRoid
+	 *            the revision before this one in the project, 0 for the first
+	 *            revision or when it is not known
+	 */
+	public ModelRevision(long poid, long roid, long parentRoid) {
+		this(poid, roid, parentRoid, -1);
+	}
+
+	/**
+	 * @param totalObjects
+	 *            the number of objects of the revision, -1 when it is not
+	 *            known. Only needed when the model does not load all of them
+	 */
+	public ModelRevision(long poid, long roid, long parentRoid, long totalObjects) {
+		this.poid = poid;
+		this.roid = roid;
+		this.parentRoid = parentRoid;
+		this.totalObjects = totalObjects;
+	}
+
+	public long getPoid() {
+		return poid;
+	}
+
+	public long getRoid() {
+		return roid;
+	}
+
+	public long getParentRoid() {
+		return parentRoid;
+	}
+
+	public long getTotalObjects() {
+		return totalObjects;
+	}
+
+	@Override
+	public String toString() {
+		return poid + "/" + roid;
+	}
+}
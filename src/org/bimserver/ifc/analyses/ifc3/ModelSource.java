@@ -0,0 +1,64 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.io.IOException;
+
+import org.bimserver.bimbots.BimBotsException;
+import org.bimserver.bimbots.BimBotsInput;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.IfcModelInterfaceException;
+import org.bimserver.shared.exceptions.PublicInterfaceNotFoundException;
+import org.bimserver.shared.exceptions.ServerException;
+import org.bimserver.shared.exceptions.UserException;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Provides the model an analysis runs on. The query, made by
+ * {@link AnalysisQuery}, lists the types and features the analysis reads;
+ * sources that can load a subset of a revision only need to load those.
+ */
+public interface ModelSource {
+
+	IfcModelInterface load(BimBotsInput input, ObjectNode query) throws BimBotsException;
+
+	/**
+	 * @return whether BIMserver has to load the complete revision into the
+	 *         model of the input before the service runs
+	 */
+	default boolean requiresCompleteModel() {
+		return true;
+	}
+
+	/**
+	 * The model that BIMserver put in the input, as it is. The query is not
+	 * used.
+	 */
+	ModelSource INPUT = (input, query) -> input.getIfcModel();
+
+	/**
+	 * Runs the query on the model of the input through the client query API,
+	 * which loads only the queried objects and features of the revision.
+	 * The query assumes a complete preload: without it, every lookup by type
+	 * of the analysis would load all objects of that type again. Models that
+	 * are already complete, like a deserialized BimBots input, ignore the
+	 * query.
+	 */
+	ModelSource QUERY = new ModelSource() {
+
+		@Override
+		public IfcModelInterface load(BimBotsInput input, ObjectNode query) throws BimBotsException {
+			IfcModelInterface model = input.getIfcModel();
+			try {
+				model.query(query, true);
+			} catch (ServerException | UserException | PublicInterfaceNotFoundException | IfcModelInterfaceException | IOException e) {
+				throw new BimBotsException(e, AnalysesErrorCode.MODEL_QUERY_FAILED);
+			}
+			return model;
+		}
+
+		@Override
+		public boolean requiresCompleteModel() {
+			return false;
+		}
+	};
+}
@@ -0,0 +1,62 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.util.Arrays;
+
+import org.bimserver.models.ifc2x3tc1.IfcRoot;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * The oids and names of a list of objects in two arrays, instead of a list of
+ * {@link IfcRoot} objects with its per element overhead. Names are interned,
+ * so the many objects that share a name share one String. The list does not
+ * reference the model, so a finished {@link Analysis} does not keep the model
+ * reachable. While the analysis runs the input still references the model, so
+ * this does not lower the peak heap of a run.
+ */
+public class ObjectList {
+
+	private static final Interner<String> NAMES = Interners.newWeakInterner();
+
+	private long[] oids = new long[16];
+	private String[] names = new String[16];
+	private int size;
+
+	public void add(IfcRoot object) {
+		add(object.getOid(), object.getName());
+	}
+
+	public void add(long oid, String name) {
+		if (size == oids.length) {
+			oids = Arrays.copyOf(oids, size * 2);
+			names = Arrays.copyOf(names, size * 2);
+		}
+		oids[size] = oid;
+		names[size] = name == null ? null : NAMES.intern(name);
+		size++;
+	}
+
+	public void addAll(ObjectList other) {
+		if (size + other.size > oids.length) {
+			int capacity = Math.max(size + other.size, oids.length * 2);
+			oids = Arrays.copyOf(oids, capacity);
+			names = Arrays.copyOf(names, capacity);
+		}
+		System.arraycopy(other.oids, 0, oids, size, other.size);
+		System.arraycopy(other.names, 0, names, size, other.size);
+		size += other.size;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public long getOid(int index) {
+		return oids[index];
+	}
+
+	public String getName(int index) {
+		return names[index];
+	}
+}
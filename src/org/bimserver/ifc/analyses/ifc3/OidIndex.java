@@ -0,0 +1,101 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+/**
+ * Open addressing hash map from object id to a non-negative int, without
+ * boxing.
+ */
+public class OidIndex {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private int[] values;
+	private int zeroValue = -1;
+	private int size;
+	private int mask;
+	private int resizeAt;
+
+	public OidIndex() {
+		this(MIN_CAPACITY);
+	}
+
+	public OidIndex(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity * 3 / 4 < expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		resizeAt = capacity * 3 / 4;
+	}
+
+	public void put(long oid, int value) {
+		if (oid == 0) {
+			if (zeroValue == -1) {
+				size++;
+			}
+			zeroValue = value;
+			return;
+		}
+		int slot = slot(oid);
+		while (keys[slot] != 0) {
+			if (keys[slot] == oid) {
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = oid;
+		values[slot] = value;
+		if (++size >= resizeAt) {
+			rehash();
+		}
+	}
+
+	/**
+	 * @return the value of the oid, or -1
+	 */
+	public int get(long oid) {
+		if (oid == 0) {
+			return zeroValue;
+		}
+		int slot = slot(oid);
+		while (keys[slot] != 0) {
+			if (keys[slot] == oid) {
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private int slot(long oid) {
+		long hash = oid * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(oldKeys.length << 1);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				int slot = slot(oldKeys[i]);
+				while (keys[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash set of object ids, without boxing. Used to de-duplicate
+ * objects in O(1) instead of calling List.contains.
+ */
+public class OidSet {
+
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private boolean containsZero;
+	private int size;
+	private int mask;
+	private int resizeAt;
+
+	public OidSet() {
+		this(MIN_CAPACITY);
+	}
+
+	public OidSet(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity * 3 / 4 < expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		mask = capacity - 1;
+		resizeAt = capacity * 3 / 4;
+	}
+
+	/**
+	 * @return true if the oid was not in the set yet
+	 */
+	public boolean add(long oid) {
+		if (oid == 0) {
+			if (containsZero) {
+				return false;
+			}
+			containsZero = true;
+			size++;
+			return true;
+		}
+		int slot = slot(oid);
+		while (keys[slot] != 0) {
+			if (keys[slot] == oid) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = oid;
+		if (++size >= resizeAt) {
+			rehash();
+		}
+		return true;
+	}
+
+	public boolean contains(long oid) {
+		if (oid == 0) {
+			return containsZero;
+		}
+		int slot = slot(oid);
+		while (keys[slot] != 0) {
+			if (keys[slot] == oid) {
+				return true;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	public void addAll(OidSet other) {
+		if (other.containsZero) {
+			add(0);
+		}
+		for (long key : other.keys) {
+			if (key != 0) {
+				add(key);
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0);
+		containsZero = false;
+		size = 0;
+	}
+
+	private int slot(long oid) {
+		long hash = oid * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		allocate(oldKeys.length << 1);
+		for (long key : oldKeys) {
+			if (key != 0) {
+				int slot = slot(key);
+				while (keys[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+			}
+		}
+	}
+}
@@ -0,0 +1,59 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import org.bimserver.plugins.SchemaName;
+
+/**
+ * How the results of a run are written.
+ */
+public enum OutputMode {
+
+	/**
+	 * One JSON object with the "results" array, the original output
+	 */
+	JSON("application/json", SchemaName.UNSTRUCTURED_UTF8_TEXT_1_0.name(), "json"),
+
+	/**
+	 * Newline delimited JSON: a summary line with the "results" but without the
+	 * per object lists, followed by one line per object record
+	 */
+	NDJSON("application/x-ndjson", SchemaName.UNSTRUCTURED_UTF8_TEXT_1_0.name(), "ndjson"),
+
+	/**
+	 * The JSON output encoded as Jackson Smile, binary and with every key
+	 * written once and referenced after that
+	 */
+	SMILE("application/x-jackson-smile", "UNSTRUCTURED_SMILE_1_0", "smile");
+
+	private final String contentType;
+	private final String schemaName;
+	private final String extension;
+
+	private OutputMode(String contentType, String schemaName, String extension) {
+		this.contentType = contentType;
+		this.schemaName = schemaName;
+		this.extension = extension;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return the schema of the BimBotsOutput
+	 */
+	public String getSchemaName() {
+		return schemaName;
+	}
+
+	/**
+	 * @return the extension of the files {@link BatchRunner} and the disk tier
+	 *         of {@link AnalysisCache} write
+	 */
+	public String getExtension() {
+		return extension;
+	}
+
+	public boolean isText() {
+		return this != SMILE;
+	}
+}
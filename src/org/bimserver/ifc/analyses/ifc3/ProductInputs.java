@@ -0,0 +1,78 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.models.ifc2x3tc1.IfcElementQuantity;
+import org.bimserver.models.ifc2x3tc1.IfcPhysicalQuantity;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcProperty;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySet;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySetDefinition;
+import org.bimserver.models.ifc2x3tc1.IfcRelDefines;
+import org.bimserver.models.ifc2x3tc1.IfcRelDefinesByProperties;
+
+/**
+ * Records the oids of the objects besides the product that the accumulators
+ * read in {@link Accumulator#extract} into a {@link ProductState}, filled by
+ * {@link Accumulator#addInputs}. A changed property, quantity, property set or
+ * mesh gets a new rid without changing the rid of the products that use it,
+ * so a product is only replayed from the state when none of its inputs
+ * changed either. The property definitions and properties of a relation are
+ * recorded once per relation, not per product. One instance is used per
+ * chunk of products.
+ */
+public class ProductInputs {
+
+	private final ProductState state;
+	private boolean definitions;
+
+	ProductInputs(ProductState state) {
+		this.state = state;
+	}
+
+	void reset() {
+		definitions = false;
+	}
+
+	/**
+	 * Adds the object, or nothing when it is null.
+	 */
+	public void add(IdEObject object) {
+		if (object != null) {
+			state.addInput(object.getOid());
+		}
+	}
+
+	/**
+	 * Adds the IsDefinedBy relations of the product with their property sets
+	 * and properties or element quantities and quantities. Only added once per
+	 * product, however many accumulators read them.
+	 */
+	public void addDefinitions(IfcProduct product) {
+		if (definitions) {
+			return;
+		}
+		definitions = true;
+		for (IfcRelDefines def : product.getIsDefinedBy()) {
+			state.addInput(def.getOid());
+			if (state.addRelation(def.getOid()) && def instanceof IfcRelDefinesByProperties) {
+				addRelationInputs(((IfcRelDefinesByProperties) def).getRelatingPropertyDefinition());
+			}
+		}
+	}
+
+	private void addRelationInputs(IfcPropertySetDefinition definition) {
+		if (definition == null) {
+			return;
+		}
+		state.addRelationInput(definition.getOid());
+		if (definition instanceof IfcPropertySet) {
+			for (IfcProperty property : ((IfcPropertySet) definition).getHasProperties()) {
+				state.addRelationInput(property.getOid());
+			}
+		} else if (definition instanceof IfcElementQuantity) {
+			for (IfcPhysicalQuantity quantity : ((IfcElementQuantity) definition).getQuantities()) {
+				state.addRelationInput(quantity.getOid());
+			}
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+/**
+ * The contribution of a single product to the analysis. It is filled by
+ * {@link Accumulator#extract}, from the model, or from a {@link ProductState}
+ * of an earlier revision, and then added by {@link Accumulator#add}. One
+ * instance is reused for all products of a chunk.
+ */
+public class ProductRecord {
+
+	public static final int PROXY = 1;
+	public static final int VODOO_SET = 2;
+	public static final int VODOO_PROP = 4;
+
+	long oid;
+	int rid;
+	/**
+	 * -1 when the product has no geometry
+	 */
+	int triangles;
+	/**
+	 * 0 when the product has no (positive) volume
+	 */
+	double volume;
+	/**
+	 * NaN when the product is not ranked
+	 */
+	double rankValue;
+	int flags;
+	int defCount;
+	int propCount;
+	/**
+	 * 0 when the product has no mesh, see {@link DuplicateGeometryAccumulator}
+	 */
+	long meshKey;
+	long exactKey;
+	long dataOid;
+	int meshTriangles;
+
+	void reset(long oid, int rid) {
+		this.oid = oid;
+		this.rid = rid;
+		triangles = -1;
+		volume = 0;
+		rankValue = Double.NaN;
+		flags = 0;
+		defCount = 0;
+		propCount = 0;
+		meshKey = 0;
+		exactKey = 0;
+		dataOid = 0;
+		meshTriangles = 0;
+	}
+
+	boolean hasFlag(int flag) {
+		return (flags & flag) != 0;
+	}
+
+	void setFlag(int flag) {
+		flags |= flag;
+	}
+}
@@ -0,0 +1,435 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.models.ifc2x3tc1.IfcObject;
+import org.bimserver.models.ifc2x3tc1.IfcRelDefines;
+
+/**
+ * The {@link ProductRecord}s of all products of an analysed revision, stored
+ * column wise, with the oids of the {@link ProductInputs} of every product and
+ * the highest rid of the revision. When the next revision is analysed, the
+ * objects with a higher rid are the changed objects. Products that did not
+ * change and do not read a changed object are replayed from this state, without
+ * reading their features from the model again.
+ */
+public class ProductState {
+
+	private static final int MAGIC = 0x49464341;
+	private static final int VERSION = 4;
+
+	private final String resultKey;
+	private long revision;
+	private int maxRid;
+	private int size;
+	private long[] oids;
+	private int[] rids;
+	// The end of the inputs of every product in inputs
+	private int[] inputEnds;
+	private int[] triangles;
+	private double[] volumes;
+	private double[] rankValues;
+	private byte[] flags;
+	private int[] defCounts;
+	private int[] propCounts;
+	private long[] meshKeys;
+	private long[] exactKeys;
+	private long[] dataOids;
+	private int[] meshTriangles;
+	private long[] inputs = new long[16];
+	private int inputCount;
+	// The IsDefinedBy relations with the end of their inputs in relationInputs
+	private long[] relationOids = new long[16];
+	private int[] relationEnds = new int[16];
+	private int relationCount;
+	private long[] relationInputs = new long[16];
+	private int relationInputCount;
+	private final OidIndex relationIndex = new OidIndex();
+	private volatile OidIndex index;
+
+	/**
+	 * @param resultKey
+	 *            the settings the records were made with, see
+	 *            {@link AnalysesConfiguration#getResultKey()}
+	 */
+	public ProductState(String resultKey, int capacity) {
+		this.resultKey = resultKey;
+		allocate(Math.max(16, capacity));
+	}
+
+	private void allocate(int capacity) {
+		oids = new long[capacity];
+		rids = new int[capacity];
+		inputEnds = new int[capacity];
+		triangles = new int[capacity];
+		volumes = new double[capacity];
+		rankValues = new double[capacity];
+		flags = new byte[capacity];
+		defCounts = new int[capacity];
+		propCounts = new int[capacity];
+		meshKeys = new long[capacity];
+		exactKeys = new long[capacity];
+		dataOids = new long[capacity];
+		meshTriangles = new int[capacity];
+	}
+
+	private void grow(int minCapacity) {
+		if (minCapacity <= oids.length) {
+			return;
+		}
+		int capacity = Math.max(minCapacity, oids.length + (oids.length >> 1));
+		oids = Arrays.copyOf(oids, capacity);
+		rids = Arrays.copyOf(rids, capacity);
+		inputEnds = Arrays.copyOf(inputEnds, capacity);
+		triangles = Arrays.copyOf(triangles, capacity);
+		volumes = Arrays.copyOf(volumes, capacity);
+		rankValues = Arrays.copyOf(rankValues, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		defCounts = Arrays.copyOf(defCounts, capacity);
+		propCounts = Arrays.copyOf(propCounts, capacity);
+		meshKeys = Arrays.copyOf(meshKeys, capacity);
+		exactKeys = Arrays.copyOf(exactKeys, capacity);
+		dataOids = Arrays.copyOf(dataOids, capacity);
+		meshTriangles = Arrays.copyOf(meshTriangles, capacity);
+	}
+
+	/**
+	 * Adds an input of the product that is added next.
+	 */
+	void addInput(long oid) {
+		if (inputCount == inputs.length) {
+			inputs = Arrays.copyOf(inputs, inputCount * 2);
+		}
+		inputs[inputCount++] = oid;
+	}
+
+	/**
+	 * Adds a relation, its inputs are added next by
+	 * {@link #addRelationInput(long)}.
+	 * 
+	 * @return false when the relation was already added
+	 */
+	boolean addRelation(long oid) {
+		if (relationIndex.get(oid) != -1) {
+			return false;
+		}
+		if (relationCount == relationOids.length) {
+			relationOids = Arrays.copyOf(relationOids, relationCount * 2);
+			relationEnds = Arrays.copyOf(relationEnds, relationCount * 2);
+		}
+		relationIndex.put(oid, relationCount);
+		relationOids[relationCount] = oid;
+		relationEnds[relationCount++] = relationInputCount;
+		return true;
+	}
+
+	/**
+	 * Adds an input of the relation that was added last.
+	 */
+	void addRelationInput(long oid) {
+		if (relationInputCount == relationInputs.length) {
+			relationInputs = Arrays.copyOf(relationInputs, relationInputCount * 2);
+		}
+		relationInputs[relationInputCount++] = oid;
+		relationEnds[relationCount - 1] = relationInputCount;
+	}
+
+	/**
+	 * Adds the record, with the inputs that were added since the last record.
+	 */
+	public void add(ProductRecord record) {
+		grow(size + 1);
+		oids[size] = record.oid;
+		rids[size] = record.rid;
+		inputEnds[size] = inputCount;
+		triangles[size] = record.triangles;
+		volumes[size] = record.volume;
+		rankValues[size] = record.rankValue;
+		flags[size] = (byte) record.flags;
+		defCounts[size] = record.defCount;
+		propCounts[size] = record.propCount;
+		meshKeys[size] = record.meshKey;
+		exactKeys[size] = record.exactKey;
+		dataOids[size] = record.dataOid;
+		meshTriangles[size] = record.meshTriangles;
+		size++;
+		index = null;
+	}
+
+	public void addAll(ProductState other) {
+		grow(size + other.size);
+		System.arraycopy(other.oids, 0, oids, size, other.size);
+		System.arraycopy(other.rids, 0, rids, size, other.size);
+		for (int row = 0; row < other.size; row++) {
+			inputEnds[size + row] = inputCount + other.inputEnds[row];
+		}
+		for (int input = 0; input < other.inputCount; input++) {
+			addInput(other.inputs[input]);
+		}
+		for (int relation = 0; relation < other.relationCount; relation++) {
+			other.copyRelation(relation, this);
+		}
+		System.arraycopy(other.triangles, 0, triangles, size, other.size);
+		System.arraycopy(other.volumes, 0, volumes, size, other.size);
+		System.arraycopy(other.rankValues, 0, rankValues, size, other.size);
+		System.arraycopy(other.flags, 0, flags, size, other.size);
+		System.arraycopy(other.defCounts, 0, defCounts, size, other.size);
+		System.arraycopy(other.propCounts, 0, propCounts, size, other.size);
+		System.arraycopy(other.meshKeys, 0, meshKeys, size, other.size);
+		System.arraycopy(other.exactKeys, 0, exactKeys, size, other.size);
+		System.arraycopy(other.dataOids, 0, dataOids, size, other.size);
+		System.arraycopy(other.meshTriangles, 0, meshTriangles, size, other.size);
+		size += other.size;
+		index = null;
+	}
+
+	private void copyRelation(int relation, ProductState target) {
+		if (target.addRelation(relationOids[relation])) {
+			for (int input = relation == 0 ? 0 : relationEnds[relation - 1]; input < relationEnds[relation]; input++) {
+				target.addRelationInput(relationInputs[input]);
+			}
+		}
+	}
+
+	/**
+	 * Finds the objects of the model with a higher rid than any object of this
+	 * state. Only the features of changed relations are read, for the products
+	 * they now define. Without changed objects nothing else is read.
+	 * 
+	 * @return the oids of the changed objects, of the products of changed
+	 *         relations and of the relations of this state that were removed
+	 *         or whose property definitions or properties changed
+	 */
+	public OidSet findChanged(IfcModelInterface model) {
+		OidSet changed = new OidSet();
+		for (IdEObject object : model.getValues()) {
+			if (object.getRid() > maxRid) {
+				changed.add(object.getOid());
+				if (object instanceof IfcRelDefines) {
+					for (IfcObject related : ((IfcRelDefines) object).getRelatedObjects()) {
+						changed.add(related.getOid());
+					}
+				}
+			}
+		}
+		if (changed.size() == 0) {
+			return changed;
+		}
+		for (int relation = 0; relation < relationCount; relation++) {
+			if (model.get(relationOids[relation]) == null) {
+				changed.add(relationOids[relation]);
+				continue;
+			}
+			for (int input = relation == 0 ? 0 : relationEnds[relation - 1]; input < relationEnds[relation]; input++) {
+				if (changed.contains(relationInputs[input])) {
+					changed.add(relationOids[relation]);
+					break;
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Fills the record with the stored contribution of its oid, if that oid
+	 * was stored with the same rid and neither the product nor one of its
+	 * inputs changed.
+	 * 
+	 * @param changed
+	 *            the changed objects, see {@link #findChanged}
+	 * @param target
+	 *            the state the inputs of a replayed product are copied to, or
+	 *            null
+	 * @return false when the product is new or changed
+	 */
+	public boolean load(ProductRecord record, OidSet changed, ProductState target) {
+		if (index == null) {
+			buildIndex();
+		}
+		int row = index.get(record.oid);
+		if (row == -1 || rids[row] != record.rid || changed.contains(record.oid)) {
+			return false;
+		}
+		int start = row == 0 ? 0 : inputEnds[row - 1];
+		for (int input = start; input < inputEnds[row]; input++) {
+			if (changed.contains(inputs[input])) {
+				return false;
+			}
+		}
+		if (target != null) {
+			for (int input = start; input < inputEnds[row]; input++) {
+				target.addInput(inputs[input]);
+				int relation = relationIndex.get(inputs[input]);
+				if (relation != -1) {
+					copyRelation(relation, target);
+				}
+			}
+		}
+		record.triangles = triangles[row];
+		record.volume = volumes[row];
+		record.rankValue = rankValues[row];
+		record.flags = flags[row];
+		record.defCount = defCounts[row];
+		record.propCount = propCounts[row];
+		record.meshKey = meshKeys[row];
+		record.exactKey = exactKeys[row];
+		record.dataOid = dataOids[row];
+		record.meshTriangles = meshTriangles[row];
+		return true;
+	}
+
+	private synchronized void buildIndex() {
+		if (index == null) {
+			OidIndex index = new OidIndex(size);
+			for (int row = 0; row < size; row++) {
+				index.put(oids[row], row);
+			}
+			this.index = index;
+		}
+	}
+
+	public String getResultKey() {
+		return resultKey;
+	}
+
+	/**
+	 * @return the id of the revision the records were made from, 0 when not
+	 *         set
+	 */
+	public long getRevision() {
+		return revision;
+	}
+
+	public void setRevision(long revision) {
+		this.revision = revision;
+	}
+
+	/**
+	 * @return the highest rid of the objects of the revision the records were
+	 *         made from, objects with a higher rid changed after it
+	 */
+	public int getMaxRid() {
+		return maxRid;
+	}
+
+	public void setMaxRid(int maxRid) {
+		this.maxRid = maxRid;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void write(Path file) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), "state", ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temp))))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(resultKey);
+			out.writeLong(revision);
+			out.writeInt(maxRid);
+			out.writeInt(size);
+			for (int row = 0; row < size; row++) {
+				out.writeLong(oids[row]);
+				out.writeInt(rids[row]);
+				out.writeInt(inputEnds[row]);
+				out.writeInt(triangles[row]);
+				out.writeDouble(volumes[row]);
+				out.writeDouble(rankValues[row]);
+				out.writeByte(flags[row]);
+				out.writeInt(defCounts[row]);
+				out.writeInt(propCounts[row]);
+				out.writeLong(meshKeys[row]);
+				out.writeLong(exactKeys[row]);
+				out.writeLong(dataOids[row]);
+				out.writeInt(meshTriangles[row]);
+			}
+			out.writeInt(inputCount);
+			for (int input = 0; input < inputCount; input++) {
+				out.writeLong(inputs[input]);
+			}
+			out.writeInt(relationCount);
+			for (int relation = 0; relation < relationCount; relation++) {
+				out.writeLong(relationOids[relation]);
+				out.writeInt(relationEnds[relation]);
+			}
+			out.writeInt(relationInputCount);
+			for (int input = 0; input < relationInputCount; input++) {
+				out.writeLong(relationInputs[input]);
+			}
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the stored state, or null when there is none or it was made with
+	 *         other settings
+	 */
+	public static ProductState read(Path file, String resultKey) throws IOException {
+		if (!Files.isRegularFile(file)) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file))))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(resultKey)) {
+				return null;
+			}
+			long revision = in.readLong();
+			int maxRid = in.readInt();
+			int size = in.readInt();
+			ProductState state = new ProductState(resultKey, size);
+			state.revision = revision;
+			state.maxRid = maxRid;
+			for (int row = 0; row < size; row++) {
+				state.oids[row] = in.readLong();
+				state.rids[row] = in.readInt();
+				state.inputEnds[row] = in.readInt();
+				state.triangles[row] = in.readInt();
+				state.volumes[row] = in.readDouble();
+				state.rankValues[row] = in.readDouble();
+				state.flags[row] = in.readByte();
+				state.defCounts[row] = in.readInt();
+				state.propCounts[row] = in.readInt();
+				state.meshKeys[row] = in.readLong();
+				state.exactKeys[row] = in.readLong();
+				state.dataOids[row] = in.readLong();
+				state.meshTriangles[row] = in.readInt();
+			}
+			state.size = size;
+			int inputCount = in.readInt();
+			state.inputs = new long[Math.max(16, inputCount)];
+			for (int input = 0; input < inputCount; input++) {
+				state.inputs[input] = in.readLong();
+			}
+			state.inputCount = inputCount;
+			int relationCount = in.readInt();
+			state.relationOids = new long[Math.max(16, relationCount)];
+			state.relationEnds = new int[Math.max(16, relationCount)];
+			for (int relation = 0; relation < relationCount; relation++) {
+				state.relationOids[relation] = in.readLong();
+				state.relationEnds[relation] = in.readInt();
+				state.relationIndex.put(state.relationOids[relation], relation);
+			}
+			state.relationCount = relationCount;
+			int relationInputCount = in.readInt();
+			state.relationInputs = new long[Math.max(16, relationInputCount)];
+			for (int input = 0; input < relationInputCount; input++) {
+				state.relationInputs[input] = in.readLong();
+			}
+			state.relationInputCount = relationInputCount;
+			return state;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcRelDefines;
+
+/**
+ * Counts properties and collects the objects that use property sets or
+ * properties whose name does not start with {@link #STANDARD_SET_PREFIX}
+ * ("voodoo" properties). What a property set contributes is looked up once
+ * per relation in {@link PropertySetSummaries}.
+ */
+public class PropertySetAccumulator implements Accumulator {
+
+	public static final String STANDARD_SET_PREFIX = "Pset_";
+
+	private final boolean keepObjects;
+	private final PropertySetSummaries sharedSummaries;
+	private PropertySetSummaries.Local summaries;
+	private long propCount;
+	private long objWithPropCount;
+	private final OidSet objectWithVodooSet = new OidSet();
+	private final OidSet objectWithVodooProp = new OidSet();
+	private final ObjectList objectWithVodooSetList = new ObjectList();
+	private final ObjectList objectWithVodooPropList = new ObjectList();
+
+	/**
+	 * @param keepObjects
+	 *            also keep the oids and names of the objects with voodoo sets
+	 *            and properties, in traversal order, instead of only counting
+	 *            them
+	 */
+	public PropertySetAccumulator(boolean keepObjects) {
+		this(keepObjects, new PropertySetSummaries());
+	}
+
+	private PropertySetAccumulator(boolean keepObjects, PropertySetSummaries sharedSummaries) {
+		this.keepObjects = keepObjects;
+		this.sharedSummaries = sharedSummaries;
+	}
+
+	@Override
+	public void extract(IfcProduct product, ProductRecord record) {
+		if (summaries == null) {
+			summaries = sharedSummaries.local();
+		}
+		for (IfcRelDefines def : product.getIsDefinedBy()) {
+			record.defCount++;
+			int summary = summaries.get(def);
+			record.flags |= PropertySetSummaries.getFlags(summary);
+			record.propCount += PropertySetSummaries.getPropCount(summary);
+		}
+	}
+
+	@Override
+	public void addInputs(IfcProduct product, ProductInputs inputs) {
+		inputs.addDefinitions(product);
+	}
+
+	@Override
+	public void add(IfcProduct product, ProductRecord record) {
+		objWithPropCount += record.defCount;
+		propCount += record.propCount;
+		if (record.hasFlag(ProductRecord.VODOO_SET) && objectWithVodooSet.add(record.oid) && keepObjects)
+			objectWithVodooSetList.add(product);
+		if (record.hasFlag(ProductRecord.VODOO_PROP) && objectWithVodooProp.add(record.oid) && keepObjects)
+			objectWithVodooPropList.add(product);
+	}
+
+	@Override
+	public String getName() {
+		return "propertySets";
+	}
+
+	@Override
+	public Accumulator createEmpty() {
+		return new PropertySetAccumulator(keepObjects, sharedSummaries);
+	}
+
+	@Override
+	public void merge(Accumulator other) {
+		PropertySetAccumulator propertySets = (PropertySetAccumulator) other;
+		propCount += propertySets.propCount;
+		objWithPropCount += propertySets.objWithPropCount;
+		objectWithVodooSet.addAll(propertySets.objectWithVodooSet);
+		objectWithVodooProp.addAll(propertySets.objectWithVodooProp);
+		objectWithVodooSetList.addAll(propertySets.objectWithVodooSetList);
+		objectWithVodooPropList.addAll(propertySets.objectWithVodooPropList);
+	}
+
+	public long getPropCount() {
+		return propCount;
+	}
+
+	public long getObjWithPropCount() {
+		return objWithPropCount;
+	}
+
+	public int getObjectWithVodooSetCount() {
+		return objectWithVodooSet.size();
+	}
+
+	public int getObjectWithVodooPropCount() {
+		return objectWithVodooProp.size();
+	}
+
+	public boolean hasVodooSet(long oid) {
+		return objectWithVodooSet.contains(oid);
+	}
+
+	public boolean hasVodooProp(long oid) {
+		return objectWithVodooProp.contains(oid);
+	}
+
+	/**
+	 * Only filled when constructed with keepObjects
+	 */
+	public ObjectList getObjectWithVodooSet() {
+		return objectWithVodooSetList;
+	}
+
+	/**
+	 * Only filled when constructed with keepObjects
+	 */
+	public ObjectList getObjectWithVodooProp() {
+		return objectWithVodooPropList;
+	}
+}
@@ -0,0 +1,100 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import org.bimserver.models.ifc2x3tc1.IfcProperty;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySet;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySetDefinition;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySingleValue;
+import org.bimserver.models.ifc2x3tc1.IfcRelDefines;
+import org.bimserver.models.ifc2x3tc1.IfcRelDefinesByProperties;
+
+/**
+ * Remembers what a property set contributes to every object it is related to:
+ * whether it is a voodoo set, whether it has voodoo properties and its number
+ * of single value properties. In real models one IfcPropertySet is shared by
+ * thousands of products through a single IfcRelDefinesByProperties, so both
+ * the relation and the set are resolved only once.
+ * <p>
+ * A summary is packed in an int: the {@link ProductRecord} flags in the lowest
+ * 8 bits and the property count above them. The shared memo is synchronized,
+ * {@link Local} keeps a lock free copy per chunk.
+ */
+public class PropertySetSummaries {
+
+	private final OidIndex summaries = new OidIndex();
+
+	public static int getFlags(int summary) {
+		return summary & 0xFF;
+	}
+
+	public static int getPropCount(int summary) {
+		return summary >>> 8;
+	}
+
+	/**
+	 * @return the summary of the property set defined by the relation, 0 when
+	 *         it is not an IfcRelDefinesByProperties with an IfcPropertySet
+	 */
+	public int get(IfcRelDefines def) {
+		int summary = get(def.getOid());
+		if (summary == -1) {
+			summary = 0;
+			if (def instanceof IfcRelDefinesByProperties) {
+				IfcPropertySetDefinition propSetDef = ((IfcRelDefinesByProperties) def).getRelatingPropertyDefinition();
+				if (propSetDef instanceof IfcPropertySet) {
+					summary = get((IfcPropertySet) propSetDef);
+				}
+			}
+			put(def.getOid(), summary);
+		}
+		return summary;
+	}
+
+	private int get(IfcPropertySet propertySet) {
+		int summary = get(propertySet.getOid());
+		if (summary == -1) {
+			int flags = 0;
+			int propCount = 0;
+			if (!propertySet.getName().startsWith(PropertySetAccumulator.STANDARD_SET_PREFIX))
+				flags |= ProductRecord.VODOO_SET;
+			for (IfcProperty prop : propertySet.getHasProperties()) {
+				if (!prop.getName().startsWith(PropertySetAccumulator.STANDARD_SET_PREFIX))
+					flags |= ProductRecord.VODOO_PROP;
+				if (prop instanceof IfcPropertySingleValue) {
+					propCount++;
+				}
+			}
+			summary = (propCount << 8) | flags;
+			put(propertySet.getOid(), summary);
+		}
+		return summary;
+	}
+
+	private synchronized int get(long oid) {
+		return summaries.get(oid);
+	}
+
+	private synchronized void put(long oid, int summary) {
+		summaries.put(oid, summary);
+	}
+
+	public Local local() {
+		return new Local();
+	}
+
+	/**
+	 * Unsynchronized view on the summaries for use by a single thread.
+	 */
+	public class Local {
+
+		private final OidIndex local = new OidIndex();
+
+		public int get(IfcRelDefines def) {
+			int summary = local.get(def.getOid());
+			if (summary == -1) {
+				summary = PropertySetSummaries.this.get(def);
+				local.put(def.getOid(), summary);
+			}
+			return summary;
+		}
+	}
+}
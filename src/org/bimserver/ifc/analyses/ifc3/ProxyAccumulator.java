@@ -0,0 +1,43 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcProxy;
+
+/**
+ * Counts IfcProxy objects.
+ */
+public class ProxyAccumulator implements Accumulator {
+
+	private long objProxyCount;
+
+	@Override
+	public void extract(IfcProduct product, ProductRecord record) {
+		if (product instanceof IfcProxy)
+			record.setFlag(ProductRecord.PROXY);
+	}
+
+	@Override
+	public void add(IfcProduct product, ProductRecord record) {
+		if (record.hasFlag(ProductRecord.PROXY))
+			objProxyCount++;
+	}
+
+	@Override
+	public String getName() {
+		return "proxies";
+	}
+
+	@Override
+	public Accumulator createEmpty() {
+		return new ProxyAccumulator();
+	}
+
+	@Override
+	public void merge(Accumulator other) {
+		objProxyCount += ((ProxyAccumulator) other).objProxyCount;
+	}
+
+	public long getObjProxyCount() {
+		return objProxyCount;
+	}
+}
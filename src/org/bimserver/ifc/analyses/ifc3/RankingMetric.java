@@ -0,0 +1,21 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+/**
+ * The value the "Top" list of the geometry results is ranked by.
+ */
+public enum RankingMetric {
+
+	TRIANGLES("triangles"),
+	TRIANGLES_PER_M3("triangles per m3"),
+	GEOMETRY_BYTES("bytes of geometry");
+
+	private final String label;
+
+	private RankingMetric(String label) {
+		this.label = label;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+}
@@ -0,0 +1,56 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes the per object records of the {@link OutputMode#NDJSON} output, one
+ * line per record. Records are numbered in the order they are passed in, only
+ * the records of the requested page are written.
+ */
+public class RecordWriter {
+
+	private final JsonGenerator generator;
+	private final long start;
+	private final long end;
+	private long index;
+
+	public RecordWriter(JsonGenerator generator, long start, long end) {
+		this.generator = generator;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Writes the records of the objects that fall in the page. Objects before
+	 * the page are skipped without being touched.
+	 * 
+	 * @param list
+	 *            the name of the list in the JSON output the objects belong to
+	 * @param classification
+	 *            the classification of the objects, or null
+	 */
+	public void write(String list, String classification, ObjectList objects) throws IOException {
+		int from = (int) Math.max(0, Math.min(start - index, objects.size()));
+		int to = (int) Math.max(from, Math.min(end - index, objects.size()));
+		for (int i = from; i < to; i++) {
+			generator.writeStartObject();
+			generator.writeStringField("list", list);
+			if (classification != null) {
+				generator.writeStringField("Classification", classification);
+			}
+			generator.writeStringField("Object", objects.getName(i));
+			generator.writeNumberField("ObjectId", objects.getOid(i));
+			generator.writeEndObject();
+		}
+		index += objects.size();
+	}
+
+	/**
+	 * @return whether all records of the page are written
+	 */
+	public boolean isFull() {
+		return index >= end;
+	}
+}
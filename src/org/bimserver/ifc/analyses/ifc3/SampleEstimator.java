@@ -0,0 +1,402 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcRelAssociatesClassification;
+import org.bimserver.models.ifc2x3tc1.IfcRoot;
+import org.eclipse.emf.ecore.EClass;
+
+/**
+ * Estimates the totals of a model from a random sample of its products,
+ * stratified by IFC type. First every type gets one sampled product and then
+ * a second one, the types with the most products first. After that products
+ * are drawn in rounds that double the sample, allocated to the types in
+ * proportion to their number of products, until the time or object budget
+ * runs out or every product is sampled; the estimate gets better with every
+ * product. The 95% confidence intervals use the normal approximation with the
+ * finite population correction, so they shrink to 0 when all products of a
+ * type are sampled.
+ * <p>
+ * A type is covered when its variance is known: it has two sampled products,
+ * or all of its products are sampled. When the budget runs out before every
+ * type is covered the estimates have no interval, and the types without any
+ * sampled product are estimated with the mean of the whole sample.
+ * <p>
+ * The products are only read with {@link Accumulator#extract}, of a
+ * {@link GeometryAccumulator} and a {@link PropertySetAccumulator} when those
+ * modules are on. Like {@link ClassificationAccumulator}, classification is
+ * read from the related objects of the IfcRelAssociatesClassification
+ * relations, and not from the inverse associations of the products.
+ */
+public class SampleEstimator {
+
+	private static final double Z_95 = 1.959964;
+	private static final int MIN_PER_STRATUM = 2;
+
+	private final long budgetNanos;
+	private final long budgetObjects;
+	private final GeometryAccumulator geometry;
+	private final PropertySetAccumulator propertySets;
+	private final boolean classifications;
+	private final long seed;
+
+	private OidSet classified;
+	private int productCount;
+	private int sampled;
+	private boolean complete;
+	private long nanos;
+	private Stratum[] strata;
+
+	/**
+	 * @param budgetMillis
+	 *            time after which no more products are sampled, 0 for no time
+	 *            budget
+	 * @param budgetObjects
+	 *            maximum number of sampled products, 0 for no object budget
+	 */
+	public SampleEstimator(long budgetMillis, long budgetObjects, boolean triangles, boolean voodoo, boolean classifications, long seed) {
+		this.budgetNanos = budgetMillis * 1000000L;
+		this.budgetObjects = budgetObjects;
+		this.geometry = triangles ? new GeometryAccumulator(true, RankingMetric.TRIANGLES, 0) : null;
+		this.propertySets = voodoo ? new PropertySetAccumulator(false) : null;
+		this.classifications = classifications;
+		this.seed = seed;
+	}
+
+	public void run(IfcModelInterface model) {
+		long startTime = System.nanoTime();
+		List<IfcProduct> products = model.getAllWithSubTypes(IfcProduct.class);
+		productCount = products.size();
+		strata = stratify(products);
+		if (classifications) {
+			classified = new OidSet();
+			for (IfcRelAssociatesClassification relation : model.getAllWithSubTypes(IfcRelAssociatesClassification.class)) {
+				for (IfcRoot related : relation.getRelatedObjects()) {
+					classified.add(related.getOid());
+				}
+			}
+		}
+		Random random = new Random(seed);
+		ProductRecord record = new ProductRecord();
+
+		Stratum[] bySize = strata.clone();
+		Arrays.sort(bySize, (a, b) -> Integer.compare(b.size(), a.size()));
+		boolean exhausted = false;
+		for (int round = 1; round <= MIN_PER_STRATUM && !exhausted; round++) {
+			for (Stratum stratum : bySize) {
+				if (stratum.n < Math.min(round, stratum.size())) {
+					if (isExhausted(startTime)) {
+						exhausted = true;
+						break;
+					}
+					sample(stratum, products, random, record);
+				}
+			}
+		}
+
+		int target = sampled;
+		while (!exhausted && sampled < productCount) {
+			target = Math.min(productCount, target * 2);
+			for (Stratum stratum : strata) {
+				int allocation = (int) Math.min(stratum.size(), Math.max(MIN_PER_STRATUM, Math.ceil(target * (double) stratum.size() / productCount)));
+				while (stratum.n < allocation) {
+					if (isExhausted(startTime)) {
+						exhausted = true;
+						break;
+					}
+					sample(stratum, products, random, record);
+				}
+				if (exhausted) {
+					break;
+				}
+			}
+		}
+		complete = sampled == productCount;
+		nanos = System.nanoTime() - startTime;
+	}
+
+	private boolean isExhausted(long startTime) {
+		return (budgetObjects > 0 && sampled >= budgetObjects) || (budgetNanos > 0 && System.nanoTime() - startTime >= budgetNanos);
+	}
+
+	private Stratum[] stratify(List<IfcProduct> products) {
+		Map<EClass, Stratum> byType = new HashMap<>();
+		List<Stratum> strata = new ArrayList<>();
+		for (int i = 0; i < products.size(); i++) {
+			EClass eClass = products.get(i).eClass();
+			Stratum stratum = byType.get(eClass);
+			if (stratum == null) {
+				stratum = new Stratum();
+				byType.put(eClass, stratum);
+				strata.add(stratum);
+			}
+			stratum.addIndex(i);
+		}
+		return strata.toArray(new Stratum[strata.size()]);
+	}
+
+	/**
+	 * Draws the next product of the stratum without replacement, by a step of
+	 * a lazy Fisher-Yates shuffle.
+	 */
+	private void sample(Stratum stratum, List<IfcProduct> products, Random random, ProductRecord record) {
+		int pick = stratum.n + random.nextInt(stratum.size() - stratum.n);
+		int index = stratum.indexes[pick];
+		stratum.indexes[pick] = stratum.indexes[stratum.n];
+		stratum.indexes[stratum.n] = index;
+
+		IfcProduct product = products.get(index);
+		record.reset(product.getOid(), product.getRid());
+		if (geometry != null) {
+			geometry.extract(product, record);
+		}
+		if (propertySets != null) {
+			propertySets.extract(product, record);
+		}
+		double triangles = Math.max(0, record.triangles);
+		double volume = record.triangles >= 0 ? record.volume : 0;
+		stratum.n++;
+		stratum.triangles.add(triangles, volume);
+		stratum.volume.add(volume, 0);
+		stratum.voodoo.add(record.hasFlag(ProductRecord.VODOO_SET) || record.hasFlag(ProductRecord.VODOO_PROP) ? 1 : 0, 0);
+		if (classifications) {
+			stratum.classified.add(classified.contains(product.getOid()) ? 1 : 0, 0);
+		}
+		sampled++;
+	}
+
+	public int getProductCount() {
+		return productCount;
+	}
+
+	public int getSampled() {
+		return sampled;
+	}
+
+	public int getStrata() {
+		return strata.length;
+	}
+
+	/**
+	 * @return the number of strata with two sampled products or with all of
+	 *         their products sampled
+	 */
+	public int getStrataCovered() {
+		int covered = 0;
+		for (Stratum stratum : strata) {
+			if (stratum.n >= Math.min(MIN_PER_STRATUM, stratum.size())) {
+				covered++;
+			}
+		}
+		return covered;
+	}
+
+	/**
+	 * @return whether every stratum is covered, the estimates only have an
+	 *         interval then
+	 */
+	public boolean isCovered() {
+		return getStrataCovered() == strata.length;
+	}
+
+	/**
+	 * @return whether all products were sampled, the estimates are exact then
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	public long getNanos() {
+		return nanos;
+	}
+
+	public boolean hasTriangles() {
+		return geometry != null;
+	}
+
+	public boolean hasVoodoo() {
+		return propertySets != null;
+	}
+
+	public boolean hasClassifications() {
+		return classifications;
+	}
+
+	public Estimate getTriangles() {
+		return total(stratum -> stratum.triangles);
+	}
+
+	public Estimate getVolume() {
+		return total(stratum -> stratum.volume);
+	}
+
+	/**
+	 * @return the ratio of the estimated triangles and volume, with the
+	 *         interval of the combined ratio estimator
+	 */
+	public Estimate getTrianglesPerM3() {
+		double triangles = getTriangles().getValue();
+		double volume = getVolume().getValue();
+		if (volume <= 0) {
+			return new Estimate(0, isCovered() ? 0 : Double.NaN);
+		}
+		double ratio = triangles / volume;
+		if (!isCovered()) {
+			return new Estimate(ratio, Double.NaN);
+		}
+		double variance = 0;
+		for (Stratum stratum : strata) {
+			Sums y = stratum.triangles;
+			if (stratum.n < 2) {
+				continue;
+			}
+			// Sample variance of the residuals y - ratio * v
+			double meanY = y.sum / stratum.n;
+			double meanV = y.sumOther / stratum.n;
+			double varianceY = (y.sumOfSquares - stratum.n * meanY * meanY) / (stratum.n - 1);
+			double varianceV = (stratum.volume.sumOfSquares - stratum.n * meanV * meanV) / (stratum.n - 1);
+			double covariance = (y.sumOfProducts - stratum.n * meanY * meanV) / (stratum.n - 1);
+			double residualVariance = Math.max(0, varianceY + ratio * ratio * varianceV - 2 * ratio * covariance);
+			variance += stratumVariance(stratum, residualVariance);
+		}
+		return new Estimate(ratio, Z_95 * Math.sqrt(variance) / volume);
+	}
+
+	/**
+	 * @return the estimated fraction of the products with voodoo property
+	 *         sets or properties
+	 */
+	public Estimate getVoodooShare() {
+		return share(total(stratum -> stratum.voodoo));
+	}
+
+	/**
+	 * @return the estimated fraction of the products with a classification
+	 */
+	public Estimate getClassificationCoverage() {
+		return share(total(stratum -> stratum.classified));
+	}
+
+	private Estimate share(Estimate total) {
+		return productCount == 0 ? new Estimate(0, 0) : new Estimate(total.getValue() / productCount, total.getHalfWidth() / productCount);
+	}
+
+	private interface Column {
+		Sums get(Stratum stratum);
+	}
+
+	private Estimate total(Column column) {
+		double total = 0;
+		double variance = 0;
+		double sampledSum = 0;
+		int unsampled = 0;
+		for (Stratum stratum : strata) {
+			if (stratum.n == 0) {
+				unsampled += stratum.size();
+				continue;
+			}
+			Sums sums = column.get(stratum);
+			double mean = sums.sum / stratum.n;
+			total += stratum.size() * mean;
+			sampledSum += sums.sum;
+			if (stratum.n > 1) {
+				variance += stratumVariance(stratum, Math.max(0, (sums.sumOfSquares - stratum.n * mean * mean) / (stratum.n - 1)));
+			}
+		}
+		if (unsampled > 0 && sampled > 0) {
+			total += unsampled * sampledSum / sampled;
+		}
+		return new Estimate(total, isCovered() ? Z_95 * Math.sqrt(variance) : Double.NaN);
+	}
+
+	/**
+	 * @return the variance of the estimated total of a stratum, N^2 (1 - n/N)
+	 *         s^2 / n
+	 */
+	private static double stratumVariance(Stratum stratum, double sampleVariance) {
+		double size = stratum.size();
+		return size * size * (1 - stratum.n / size) * sampleVariance / stratum.n;
+	}
+
+	private static class Stratum {
+		private int[] indexes = new int[8];
+		private int size;
+		private int n;
+		private final Sums triangles = new Sums();
+		private final Sums volume = new Sums();
+		private final Sums voodoo = new Sums();
+		private final Sums classified = new Sums();
+
+		private void addIndex(int index) {
+			if (size == indexes.length) {
+				indexes = Arrays.copyOf(indexes, size * 2);
+			}
+			indexes[size++] = index;
+		}
+
+		private int size() {
+			return size;
+		}
+	}
+
+	private static class Sums {
+		private double sum;
+		private double sumOfSquares;
+		private double sumOther;
+		private double sumOfProducts;
+
+		/**
+		 * @param other
+		 *            a second value of the same product, for the covariance
+		 *            of the ratio estimator
+		 */
+		private void add(double value, double other) {
+			sum += value;
+			sumOfSquares += value * value;
+			sumOther += other;
+			sumOfProducts += value * other;
+		}
+	}
+
+	/**
+	 * An estimated value with the half width of its 95% confidence interval,
+	 * NaN when the interval is not known.
+	 */
+	public static class Estimate {
+
+		private final double value;
+		private final double halfWidth;
+
+		public Estimate(double value, double halfWidth) {
+			this.value = value;
+			this.halfWidth = halfWidth;
+		}
+
+		public double getValue() {
+			return value;
+		}
+
+		public double getHalfWidth() {
+			return halfWidth;
+		}
+
+		public boolean hasInterval() {
+			return !Double.isNaN(halfWidth);
+		}
+
+		public double getLow() {
+			return value - halfWidth;
+		}
+
+		public double getHigh() {
+			return value + halfWidth;
+		}
+	}
+}
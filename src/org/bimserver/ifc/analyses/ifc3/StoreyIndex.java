@@ -0,0 +1,146 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.models.ifc2x3tc1.IfcBuildingStorey;
+import org.bimserver.models.ifc2x3tc1.IfcObjectDefinition;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcRelContainedInSpatialStructure;
+import org.bimserver.models.ifc2x3tc1.IfcRelDecomposes;
+import org.bimserver.models.ifc2x3tc1.IfcSpatialStructureElement;
+
+/**
+ * Finds the IfcBuildingStorey of a product: through the spatial structure the
+ * product is contained in, or through the object it decomposes (spaces,
+ * parts of aggregated elements), up to the first storey. Storeys get an index
+ * in the order they are found, 0 is for products without storey.
+ * <p>
+ * The containment is read once from the IfcRelContainedInSpatialStructure
+ * relations by {@link #index(IfcModelInterface)}, because reading the
+ * ContainedInStructure inverse of every element costs about as much as the
+ * rest of the breakdown. The storey of every structure and aggregate on the
+ * way is remembered, so the walk up is done once per structure. The shared
+ * registry is synchronized, {@link Local} keeps a lock free cache per chunk.
+ */
+public class StoreyIndex {
+
+	public static final int NO_STOREY = 0;
+
+	private static final int MAX_DEPTH = 32;
+
+	private OidIndex containers = new OidIndex();
+	private final List<IfcSpatialStructureElement> structures = new ArrayList<>();
+	private final OidIndex indexes = new OidIndex();
+	private final ObjectList storeys = new ObjectList();
+	private double[] elevations = new double[16];
+
+	/**
+	 * Indexes the elements of the containment relations of the model by their
+	 * oid. Called before the products are looked up; lookups only read the
+	 * index.
+	 */
+	public void index(IfcModelInterface model) {
+		List<IfcRelContainedInSpatialStructure> containments = model.getAllWithSubTypes(IfcRelContainedInSpatialStructure.class);
+		int elements = 0;
+		for (IfcRelContainedInSpatialStructure containment : containments) {
+			elements += containment.getRelatedElements().size();
+		}
+		containers = new OidIndex(elements);
+		structures.clear();
+		for (IfcRelContainedInSpatialStructure containment : containments) {
+			IfcSpatialStructureElement structure = containment.getRelatingStructure();
+			if (structure == null) {
+				continue;
+			}
+			int container = structures.size();
+			structures.add(structure);
+			for (IfcProduct element : containment.getRelatedElements()) {
+				// An element is contained in one structure, the first relation wins
+				if (containers.get(element.getOid()) == -1) {
+					containers.put(element.getOid(), container);
+				}
+			}
+		}
+	}
+
+	private synchronized int register(IfcBuildingStorey storey) {
+		int index = indexes.get(storey.getOid());
+		if (index == -1) {
+			if (storeys.size() == elevations.length) {
+				elevations = Arrays.copyOf(elevations, elevations.length * 2);
+			}
+			elevations[storeys.size()] = storey.getElevation();
+			storeys.add(storey);
+			index = storeys.size();
+			indexes.put(storey.getOid(), index);
+		}
+		return index;
+	}
+
+	/**
+	 * @return the number of indexes, including {@link #NO_STOREY}
+	 */
+	public synchronized int size() {
+		return storeys.size() + 1;
+	}
+
+	public synchronized long getOid(int index) {
+		return storeys.getOid(index - 1);
+	}
+
+	public synchronized String getName(int index) {
+		return storeys.getName(index - 1);
+	}
+
+	public synchronized double getElevation(int index) {
+		return elevations[index - 1];
+	}
+
+	public Local local() {
+		return new Local();
+	}
+
+	/**
+	 * Unsynchronized cache of the storeys of structures and aggregates, for use
+	 * by a single thread.
+	 */
+	public class Local {
+
+		private final OidIndex cache = new OidIndex();
+
+		public int get(IfcProduct product) {
+			return get(product, 0);
+		}
+
+		private int get(IfcObjectDefinition object, int depth) {
+			if (object instanceof IfcBuildingStorey) {
+				return register((IfcBuildingStorey) object);
+			}
+			if (depth > MAX_DEPTH) {
+				return NO_STOREY;
+			}
+			IfcObjectDefinition parent = null;
+			int container = containers.get(object.getOid());
+			if (container != -1) {
+				parent = structures.get(container);
+			} else {
+				for (IfcRelDecomposes decomposes : object.getDecomposes()) {
+					parent = decomposes.getRelatingObject();
+					break;
+				}
+			}
+			if (parent == null) {
+				return NO_STOREY;
+			}
+			int index = cache.get(parent.getOid());
+			if (index == -1) {
+				index = get(parent, depth + 1);
+				cache.put(parent.getOid(), index);
+			}
+			return index;
+		}
+	}
+}
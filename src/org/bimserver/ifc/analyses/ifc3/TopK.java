@@ -0,0 +1,147 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the K highest (value, oid) pairs in a primitive min-heap that grows up
+ * to K entries. Memory is O(K) and offering n values costs O(n log K), sorting
+ * the kept entries costs O(K log K). Equal values are
+ * ranked by ascending oid, so the outcome does not depend on the order in
+ * which the values were offered.
+ */
+public class TopK {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final int k;
+	private double[] values;
+	private long[] oids;
+	private int size;
+
+	public TopK(int k) {
+		this.k = k;
+		this.values = new double[Math.min(k, INITIAL_CAPACITY)];
+		this.oids = new long[values.length];
+	}
+
+	public void offer(double value, long oid) {
+		if (size < k) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, (int) Math.min(k, 2L * size));
+				oids = Arrays.copyOf(oids, values.length);
+			}
+			values[size] = value;
+			oids[size] = oid;
+			siftUp(size++);
+		} else if (k > 0 && better(value, oid, values[0], oids[0])) {
+			values[0] = value;
+			oids[0] = oid;
+			siftDown(0);
+		}
+	}
+
+	public void merge(TopK other) {
+		for (int i = 0; i < other.size; i++) {
+			offer(other.values[i], other.oids[i]);
+		}
+	}
+
+	public int getK() {
+		return k;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the indexes of the kept entries, best first
+	 */
+	public int[] sortedIndexes() {
+		// The entries already form a heap, so a heap of their indexes pops the worst first
+		int[] heap = new int[size];
+		for (int i = 0; i < size; i++) {
+			heap[i] = i;
+		}
+		int[] indexes = new int[size];
+		for (int remaining = size; remaining > 0; remaining--) {
+			indexes[remaining - 1] = heap[0];
+			heap[0] = heap[remaining - 1];
+			siftDown(heap, remaining - 1, 0);
+		}
+		return indexes;
+	}
+
+	public double getValue(int index) {
+		return values[index];
+	}
+
+	public long getOid(int index) {
+		return oids[index];
+	}
+
+	private static boolean better(double value, long oid, double otherValue, long otherOid) {
+		int compare = Double.compare(value, otherValue);
+		return compare > 0 || (compare == 0 && oid < otherOid);
+	}
+
+	private void siftUp(int index) {
+		while (index > 0) {
+			int parent = (index - 1) >>> 1;
+			if (!better(values[parent], oids[parent], values[index], oids[index])) {
+				break;
+			}
+			swap(index, parent);
+			index = parent;
+		}
+	}
+
+	private void siftDown(int index) {
+		while (true) {
+			int worst = index;
+			int left = 2 * index + 1;
+			int right = left + 1;
+			if (left < size && better(values[worst], oids[worst], values[left], oids[left])) {
+				worst = left;
+			}
+			if (right < size && better(values[worst], oids[worst], values[right], oids[right])) {
+				worst = right;
+			}
+			if (worst == index) {
+				break;
+			}
+			swap(index, worst);
+			index = worst;
+		}
+	}
+
+	private void siftDown(int[] heap, int heapSize, int index) {
+		while (true) {
+			int worst = index;
+			int left = 2 * index + 1;
+			int right = left + 1;
+			if (left < heapSize && better(values[heap[worst]], oids[heap[worst]], values[heap[left]], oids[heap[left]])) {
+				worst = left;
+			}
+			if (right < heapSize && better(values[heap[worst]], oids[heap[worst]], values[heap[right]], oids[heap[right]])) {
+				worst = right;
+			}
+			if (worst == index) {
+				break;
+			}
+			int entry = heap[index];
+			heap[index] = heap[worst];
+			heap[worst] = entry;
+			index = worst;
+		}
+	}
+
+	private void swap(int a, int b) {
+		double value = values[a];
+		values[a] = values[b];
+		values[b] = value;
+		long oid = oids[a];
+		oids[a] = oids[b];
+		oids[b] = oid;
+	}
+}
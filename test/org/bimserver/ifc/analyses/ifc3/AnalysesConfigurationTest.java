@@ -0,0 +1,23 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class AnalysesConfigurationTest {
+
+	@Test
+	public void boundsParallelismByTheProcessors() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		Map<String, Object> settings = new HashMap<>();
+		settings.put(AnalysesConfiguration.PARALLELISM, Long.MAX_VALUE);
+		assertEquals(processors, new AnalysesConfiguration(AnalysesConfiguration.createPluginConfiguration(settings)).getParallelism());
+		settings.put(AnalysesConfiguration.PARALLELISM, (long) Integer.MAX_VALUE + 1);
+		assertEquals(processors, new AnalysesConfiguration(AnalysesConfiguration.createPluginConfiguration(settings)).getParallelism());
+		settings.put(AnalysesConfiguration.PARALLELISM, -1L);
+		assertEquals(1, new AnalysesConfiguration(AnalysesConfiguration.createPluginConfiguration(settings)).getParallelism());
+	}
+}
@@ -0,0 +1,42 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class AnalysesMonitorTest {
+
+	@Test
+	public void unregistersTheMXBean() throws Exception {
+		ObjectName objectName = new ObjectName("org.bimserver.ifc.analyses:type=Analyses,name=" + ObjectName.quote("AnalysesMonitorTest"));
+		AnalysesMonitor monitor = new AnalysesMonitor(new AnalysisCache());
+		monitor.register("AnalysesMonitorTest");
+		assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+		monitor.unregister();
+		assertFalse(monitor.isRegistered());
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+	}
+
+	@Test
+	public void recordsTheWallTimeOfTheTraversal() {
+		Map<String, Object> settings = new HashMap<>();
+		settings.put(AnalysesConfiguration.INCLUDE_METRICS, true);
+		Analysis analysis = new Analysis(false, new AnalysesConfiguration(AnalysesConfiguration.createPluginConfiguration(settings)));
+		analysis.getEngine().setParallelism(2);
+		analysis.run(new StandInModel().setProducts(3 * AnalysisEngine.CHUNK_SIZE).create());
+
+		Map<String, AnalysisMetrics.Phase> phases = analysis.getMetrics().getPhases();
+		AnalysisMetrics.Phase traversal = phases.get(AnalysisMetrics.TRAVERSAL);
+		assertEquals(analysis.getProductCount(), traversal.getObjects());
+		assertEquals(phases.get(AnalysisMetrics.PRODUCTS).getObjects(), traversal.getObjects());
+		assertTrue(traversal.getNanos() > 0);
+	}
+}
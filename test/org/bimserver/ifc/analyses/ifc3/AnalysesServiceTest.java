@@ -0,0 +1,155 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bimserver.bimbots.BimBotDefaultErrorCode;
+import org.bimserver.bimbots.BimBotsException;
+import org.bimserver.bimbots.BimBotsInput;
+import org.bimserver.bimbots.BimBotsOutput;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.plugins.SchemaName;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+public class AnalysesServiceTest {
+
+	private static final ObjectMapper JSON = new ObjectMapper();
+	private static final ObjectMapper SMILE = new ObjectMapper(new SmileFactory());
+
+	@Test
+	public void writesCompleteOutputInEveryMode() throws Exception {
+		IfcModelInterface model = new StandInModel().setProducts(3000).create();
+		for (AbstractAnalysesService service : new AbstractAnalysesService[] { new AnalysesService(), new AnalysesServiceDetailed() }) {
+			JsonNode json = JSON.readTree(run(service, model, OutputMode.JSON, true));
+			assertTrue(json.get("results").size() > 0);
+			assertTrue(json.has("_metrics"));
+
+			JsonNode smile = SMILE.readTree(run(service, model, OutputMode.SMILE, false));
+			assertEquals(JSON.readTree(run(service, model, OutputMode.JSON, false)), smile);
+
+			String ndjson = new String(run(service, model, OutputMode.NDJSON, false), StandardCharsets.UTF_8);
+			assertTrue(ndjson.endsWith("\n"));
+			try (BufferedReader reader = new BufferedReader(new StringReader(ndjson))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					JSON.readTree(line);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void smileIsLessThanHalfTheSizeOfJson() throws Exception {
+		IfcModelInterface model = new StandInModel().setProducts(20000).setVoodooShare(0.5).create();
+		AnalysesServiceDetailed service = new AnalysesServiceDetailed();
+		byte[] json = run(service, model, OutputMode.JSON, false);
+		byte[] smile = run(service, model, OutputMode.SMILE, false);
+		assertEquals(JSON.readTree(json), SMILE.readTree(smile));
+		assertTrue(smile.length + " of " + json.length + " bytes", smile.length * 2 < json.length);
+	}
+
+	@Test
+	public void rejectsUnknownSettingsWithTheAllowedValues() throws Exception {
+		IfcModelInterface model = new StandInModel().setProducts(100).create();
+		String[][] settings = { { AnalysesConfiguration.TOP_METRIC, "TRIANGLE", "TRIANGLES_PER_M3" }, { AnalysesConfiguration.OUTPUT_MODE, "XML", "SMILE" } };
+		for (String[] setting : settings) {
+			Map<String, Object> values = new HashMap<>();
+			values.put(setting[0], setting[1]);
+			BimBotsInput input = new BimBotsInput(SchemaName.IFC_STEP_2X3TC1, null);
+			input.setIfcModel(model);
+			try {
+				new AnalysesService().runBimBot(input, null, AnalysesConfiguration.createPluginConfiguration(values));
+				fail(setting[0] + " " + setting[1] + " was accepted");
+			} catch (BimBotsException e) {
+				assertEquals(BimBotDefaultErrorCode.INVALID_CONFIGURATION.getErrorCode(), e.getErrorCode());
+				assertTrue(e.getMessage(), e.getMessage().contains(setting[2]));
+			}
+		}
+		Map<String, Object> values = new HashMap<>();
+		values.put(AnalysesConfiguration.TOP_METRIC, " triangles ");
+		assertEquals(RankingMetric.TRIANGLES, new AnalysesConfiguration(AnalysesConfiguration.createPluginConfiguration(values)).getTopMetric());
+	}
+
+	@Test
+	public void advertisesEveryOutputSchema() {
+		Set<String> outputs = new AnalysesService().getAvailableOutputs();
+		for (OutputMode outputMode : OutputMode.values()) {
+			assertTrue(outputs.contains(outputMode.getSchemaName()));
+		}
+		assertTrue(outputs.contains(new AnalysesService().getOutputSchema()));
+	}
+
+	@Test
+	public void rendersPagesFromOneAnalysis() throws Exception {
+		IfcModelInterface model = new StandInModel().setProducts(3000).setVoodooShare(0.5).create();
+		AnalysesServiceDetailed service = new AnalysesServiceDetailed();
+		service.configure(AnalysesConfiguration.createPluginConfiguration(new HashMap<>()));
+		AtomicInteger loads = new AtomicInteger();
+		service.setModelSource((input, query) -> {
+			loads.incrementAndGet();
+			return input.getIfcModel();
+		});
+		// A BimBots call without a revision is identified by its data
+		BimBotsInput input = new BimBotsInput(SchemaName.IFC_STEP_2X3TC1, "stand-in".getBytes(StandardCharsets.UTF_8));
+		input.setIfcModel(model);
+
+		List<String> records = new ArrayList<>();
+		long offset = 0;
+		JsonNode summary;
+		do {
+			Map<String, Object> settings = new HashMap<>();
+			settings.put(AnalysesConfiguration.OUTPUT_MODE, OutputMode.NDJSON.name());
+			settings.put(AnalysesConfiguration.DETAIL_OFFSET, offset);
+			settings.put(AnalysesConfiguration.DETAIL_LIMIT, 500);
+			String[] lines = new String(service.runBimBot(input, null, AnalysesConfiguration.createPluginConfiguration(settings)).getData(), StandardCharsets.UTF_8).split("\n");
+			summary = JSON.readTree(lines[0]);
+			records.addAll(Arrays.asList(lines).subList(1, lines.length));
+			offset = summary.path("nextOffset").asLong();
+		} while (summary.has("nextOffset"));
+
+		assertTrue(summary.get("records").asLong() > 1000);
+		assertEquals(summary.get("records").asLong(), records.size());
+		assertEquals(1, loads.get());
+
+		Map<String, Object> settings = new HashMap<>();
+		settings.put(AnalysesConfiguration.OUTPUT_MODE, OutputMode.NDJSON.name());
+		String all = new String(service.runBimBot(input, null, AnalysesConfiguration.createPluginConfiguration(settings)).getData(), StandardCharsets.UTF_8);
+		List<String> lines = Arrays.asList(all.split("\n"));
+		assertEquals(lines.subList(1, lines.size()), records);
+		assertEquals(1, loads.get());
+
+		// A page cut from the cached output equals the page written by the analysis
+		settings.put(AnalysesConfiguration.DETAIL_OFFSET, 500);
+		settings.put(AnalysesConfiguration.DETAIL_LIMIT, 500);
+		byte[] page = service.runBimBot(input, null, AnalysesConfiguration.createPluginConfiguration(settings)).getData();
+		byte[] written = new AnalysesServiceDetailed().runBimBot(input, null, AnalysesConfiguration.createPluginConfiguration(settings)).getData();
+		assertArrayEquals(written, page);
+	}
+
+	private static byte[] run(AbstractAnalysesService service, IfcModelInterface model, OutputMode outputMode, boolean includeMetrics) throws Exception {
+		Map<String, Object> settings = new HashMap<>();
+		settings.put(AnalysesConfiguration.OUTPUT_MODE, outputMode.name());
+		settings.put(AnalysesConfiguration.INCLUDE_METRICS, includeMetrics);
+		BimBotsInput input = new BimBotsInput(SchemaName.IFC_STEP_2X3TC1, null);
+		input.setIfcModel(model);
+		BimBotsOutput output = service.runBimBot(input, null, AnalysesConfiguration.createPluginConfiguration(settings));
+		return output.getData();
+	}
+}
@@ -0,0 +1,70 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AnalysisCacheTest {
+
+	@Test
+	public void keepsTheDiskTierWithinItsBudget() throws IOException {
+		Path directory = Files.createTempDirectory("analysiscache");
+		AnalysisCache cache = new AnalysisCache();
+		cache.configure(0, directory, 3000);
+		cache.put("a", OutputMode.JSON, new byte[1000]);
+		cache.put("b", OutputMode.SMILE, new byte[1000]);
+		cache.put("c", OutputMode.NDJSON, new byte[1000]);
+		// A disk hit makes "a" the most recently used
+		assertArrayEquals(new byte[1000], cache.get("a", OutputMode.JSON));
+		cache.put("d", OutputMode.JSON, new byte[1000]);
+
+		assertEquals(3, cache.getFileCount());
+		assertEquals(3000, cache.getDiskBytes());
+		assertNull(cache.get("b", OutputMode.SMILE));
+		assertEquals(2, count(directory, "*.json"));
+		assertEquals(1, count(directory, "*.ndjson"));
+		assertEquals(0, count(directory, "*.smile"));
+
+		// Results over the budget are not written
+		cache.put("e", OutputMode.JSON, new byte[4000]);
+		assertEquals(3000, cache.getDiskBytes());
+	}
+
+	@Test
+	public void findsResultsOfAnEarlierRun() throws IOException {
+		Path directory = Files.createTempDirectory("analysiscache");
+		AnalysisCache cache = new AnalysisCache();
+		cache.configure(0, directory, 10000);
+		cache.put("a", OutputMode.JSON, new byte[] { 1, 2, 3 });
+		cache.put("b", OutputMode.JSON, new byte[] { 4 });
+
+		AnalysisCache restarted = new AnalysisCache();
+		restarted.configure(1000, directory, 10000);
+		assertEquals(4, restarted.getDiskBytes());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, restarted.get("a", OutputMode.JSON));
+		assertNull(restarted.get("b", OutputMode.SMILE));
+		assertEquals(1, restarted.getDiskHits());
+
+		// A smaller budget evicts on configure
+		restarted.configure(1000, directory, 0);
+		assertEquals(0, restarted.getFileCount());
+		assertEquals(0, count(directory, "*"));
+	}
+
+	private static int count(Path directory, String glob) throws IOException {
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, glob)) {
+			directoryStream.forEach(files::add);
+		}
+		return files.size();
+	}
+}
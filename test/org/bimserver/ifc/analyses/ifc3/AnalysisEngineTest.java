@@ -0,0 +1,31 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.junit.Test;
+
+public class AnalysisEngineTest {
+
+	@Test
+	public void parallelRunEqualsSequentialRun() {
+		IfcModelInterface model = new StandInModel().setProducts(5 * AnalysisEngine.CHUNK_SIZE + 7).setVoodooShare(0.5).create();
+		Map<String, Object> settings = new HashMap<>();
+		for (AnalysisModule module : AnalysisModule.values()) {
+			settings.put(module.getIdentifier(), true);
+		}
+		AnalysesConfiguration configuration = new AnalysesConfiguration(AnalysesConfiguration.createPluginConfiguration(settings));
+		AnalysesServiceDetailed service = new AnalysesServiceDetailed();
+
+		Analysis sequential = new Analysis(true, configuration);
+		sequential.run(model);
+		// More threads than chunks of products, independent of the processors of this machine
+		Analysis parallel = new Analysis(true, configuration);
+		parallel.getEngine().setParallelism(8);
+		parallel.run(model);
+		assertArrayEquals(service.write(sequential, configuration), service.write(parallel, configuration));
+	}
+}
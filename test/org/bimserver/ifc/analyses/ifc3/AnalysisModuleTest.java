@@ -0,0 +1,84 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class AnalysisModuleTest {
+
+	private static final ObjectMapper JSON = new ObjectMapper();
+	private static final Set<String> TOTALS = new HashSet<>(Arrays.asList("Totalobjects", "IfcProducts"));
+
+	private final IfcModelInterface model = new StandInModel().setProducts(2000).setVoodooShare(0.5).create();
+
+	@Test
+	public void readsAndWritesNothingWithEveryModuleOff() throws Exception {
+		AtomicLong reads = new AtomicLong();
+		assertEquals(TOTALS, run(settings(), reads));
+		assertEquals(0, reads.get());
+	}
+
+	@Test
+	public void writesOnlyTheModulesThatAreOn() throws Exception {
+		Set<String> all = new HashSet<>(TOTALS);
+		// Coverage is only indexed together with the classifications, and also writes the classified products with voodoo
+		AnalysisModule[] coverageModules = { AnalysisModule.CLASSIFICATIONS, AnalysisModule.VOODOO };
+		Set<String> coverageBase = run(settings(coverageModules), new AtomicLong());
+		for (AnalysisModule module : AnalysisModule.values()) {
+			AtomicLong reads = new AtomicLong();
+			boolean coverage = module == AnalysisModule.COVERAGE;
+			Set<String> names = coverage ? run(settings(module, coverageModules[0], coverageModules[1]), reads) : run(settings(module), reads);
+			assertTrue(names.containsAll(TOTALS));
+			names.removeAll(coverage ? coverageBase : TOTALS);
+			assertFalse(module.name(), names.isEmpty());
+			for (String name : names) {
+				assertTrue(module + " writes " + name + " of another module", all.add(name));
+			}
+			// Proxies only look at the type of the products
+			assertEquals(module.name(), module != AnalysisModule.PROXIES, reads.get() > 0);
+		}
+		assertEquals(all, run(settings(AnalysisModule.values()), new AtomicLong()));
+	}
+
+	private static Map<String, Object> settings(AnalysisModule... modules) {
+		Map<String, Object> settings = new HashMap<>();
+		for (AnalysisModule module : AnalysisModule.values()) {
+			settings.put(module.getIdentifier(), Arrays.asList(modules).contains(module));
+		}
+		settings.put(AnalysesConfiguration.TOP_K, 0);
+		return settings;
+	}
+
+	/**
+	 * @return the names of the results of the detailed service
+	 */
+	private Set<String> run(Map<String, Object> settings, AtomicLong reads) throws Exception {
+		AnalysesConfiguration configuration = new AnalysesConfiguration(AnalysesConfiguration.createPluginConfiguration(settings));
+		Analysis analysis = new Analysis(true, configuration);
+		AtomicLong counted = StandInModel.countFeatureReads(model);
+		analysis.run(model);
+		reads.set(counted.get());
+
+		Set<String> names = new HashSet<>();
+		for (JsonNode result : JSON.readTree(new AnalysesServiceDetailed().write(analysis, configuration)).get("results")) {
+			for (Iterator<String> fields = result.fieldNames(); fields.hasNext();) {
+				names.add(fields.next());
+			}
+		}
+		return names;
+	}
+}
@@ -0,0 +1,45 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertNull;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bimserver.bimbots.BimBotsInput;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.plugins.SchemaName;
+import org.junit.Test;
+
+/**
+ * The service only caches the written results, it must not keep the model
+ * reachable after a run.
+ */
+public class AnalysisRetentionTest {
+
+	@Test
+	public void serviceDoesNotKeepTheModel() throws Exception {
+		AnalysesServiceDetailed service = new AnalysesServiceDetailed();
+		service.configure(AnalysesConfiguration.createPluginConfiguration(new HashMap<>()));
+		WeakReference<IfcModelInterface> model = run(service);
+
+		for (int i = 0; i < 20 && model.get() != null; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		assertNull(model.get());
+	}
+
+	private static WeakReference<IfcModelInterface> run(AbstractAnalysesService service) throws Exception {
+		IfcModelInterface model = new StandInModel().setProducts(5000).setVoodooShare(0.5).create();
+		Map<String, Object> settings = new HashMap<>();
+		for (AnalysisModule module : AnalysisModule.values()) {
+			settings.put(module.getIdentifier(), true);
+		}
+		BimBotsInput input = new BimBotsInput(SchemaName.IFC_STEP_2X3TC1, "stand-in".getBytes(StandardCharsets.UTF_8));
+		input.setIfcModel(model);
+		service.runBimBot(input, null, AnalysesConfiguration.createPluginConfiguration(settings));
+		return new WeakReference<>(model);
+	}
+}
@@ -0,0 +1,95 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.models.ifc2x3tc1.IfcBuildingStorey;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcProxy;
+import org.bimserver.models.ifc2x3tc1.IfcRelContainedInSpatialStructure;
+import org.junit.Test;
+
+public class BreakdownTest {
+
+	private final IfcModelInterface model = new StandInModel().setProducts(3000).setVoodooShare(0.5).create();
+
+	@Test
+	public void addsUpPerTypeAndPerStorey() {
+		Map<String, Object> settings = new HashMap<>();
+		settings.put(AnalysisModule.BREAKDOWN.getIdentifier(), true);
+		Analysis analysis = new Analysis(true, new AnalysesConfiguration(AnalysesConfiguration.createPluginConfiguration(settings)));
+		analysis.run(model);
+		BreakdownAccumulator breakdown = analysis.getBreakdown();
+		StoreyIndex storeys = breakdown.getStoreys();
+
+		// The storeys of the products, from the containment relations
+		Map<Long, Long> storeyOids = new HashMap<>();
+		for (IfcRelContainedInSpatialStructure containment : model.getAll(IfcRelContainedInSpatialStructure.class)) {
+			for (IfcProduct product : containment.getRelatedElements()) {
+				storeyOids.put(product.getOid(), containment.getRelatingStructure().getOid());
+			}
+		}
+		Map<Long, Integer> storeyIndexes = new HashMap<>();
+		for (int index = StoreyIndex.NO_STOREY + 1; index < storeys.size(); index++) {
+			storeyIndexes.put(storeys.getOid(index), index);
+		}
+
+		BreakdownTable byType = new BreakdownTable();
+		BreakdownTable byStorey = new BreakdownTable();
+		GeometryAccumulator geometry = new GeometryAccumulator(true, RankingMetric.TRIANGLES, 0);
+		PropertySetAccumulator propertySets = new PropertySetAccumulator(false);
+		ProductRecord record = new ProductRecord();
+		for (IfcProduct product : model.getAllWithSubTypes(IfcProduct.class)) {
+			record.reset(product.getOid(), product.getRid());
+			geometry.extract(product, record);
+			propertySets.extract(product, record);
+			boolean proxy = product instanceof IfcProxy;
+			byType.add(product.eClass().getClassifierID(), record, proxy);
+			Long storey = product instanceof IfcBuildingStorey ? Long.valueOf(product.getOid()) : storeyOids.get(product.getOid());
+			byStorey.add(storey == null ? StoreyIndex.NO_STOREY : storeyIndexes.get(storey), record, proxy);
+		}
+
+		assertEquals(5, storeys.size());
+		assertTrue(byStorey.getProducts(StoreyIndex.NO_STOREY) > 0);
+		assertSameTotals(byType, breakdown.getByType());
+		assertSameTotals(byStorey, breakdown.getByStorey());
+		assertEquals("IfcWall", breakdown.getTypeName(model.getPackageMetaData().getEClass("IfcWall").getClassifierID()));
+	}
+
+	@Test
+	public void mergeEqualsSingleTable() {
+		BreakdownTable single = new BreakdownTable();
+		BreakdownTable merged = new BreakdownTable();
+		BreakdownTable part = new BreakdownTable();
+		ProductRecord record = new ProductRecord();
+		for (int oid = 0; oid < 1000; oid++) {
+			record.reset(oid, 1);
+			record.triangles = oid % 7 == 0 ? -1 : oid;
+			record.volume = oid / 8.0;
+			int bucket = oid % 13;
+			if (oid % 3 == 0) {
+				record.setFlag(ProductRecord.VODOO_SET);
+			}
+			boolean proxy = oid % 5 == 0;
+			single.add(bucket, record, proxy);
+			// The part has more buckets than the table it is merged into
+			(bucket < 6 ? merged : part).add(bucket, record, proxy);
+		}
+		merged.addAll(part);
+		assertSameTotals(single, merged);
+	}
+
+	private static void assertSameTotals(BreakdownTable expected, BreakdownTable actual) {
+		for (int bucket = 0; bucket < Math.max(expected.size(), actual.size()); bucket++) {
+			assertEquals(expected.getProducts(bucket), actual.getProducts(bucket));
+			assertEquals(expected.getTriangles(bucket), actual.getTriangles(bucket));
+			assertEquals(expected.getVolume(bucket), actual.getVolume(bucket), 1e-6);
+			assertEquals(expected.getProxies(bucket), actual.getProxies(bucket));
+			assertEquals(expected.getVoodoo(bucket), actual.getVoodoo(bucket));
+		}
+	}
+}
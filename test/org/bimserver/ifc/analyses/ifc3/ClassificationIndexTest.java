@@ -0,0 +1,45 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+
+public class ClassificationIndexTest {
+
+	@Test
+	public void joinsChunksAndCountsPerType() {
+		ClassificationIndex index = new ClassificationIndex();
+		index.addProduct(10, "IfcWall", false);
+		index.addProduct(11, "IfcWall", true);
+		ClassificationIndex chunk = new ClassificationIndex();
+		chunk.addProduct(12, "IfcDoor", true);
+		chunk.addProduct(13, "IfcWall", false);
+		index.addAll(chunk);
+
+		RoaringBitmap uniclass = index.getOrCreate("Uniclass");
+		index.classify(11, uniclass);
+		index.classify(12, index.getOrCreate("NL-SfB"));
+		index.classify(13, null);
+		// Not a product
+		index.classify(99, uniclass);
+
+		assertEquals(RoaringBitmap.bitmapOf(1, 2), index.getVoodoo());
+		assertEquals(RoaringBitmap.bitmapOf(1, 2, 3), index.getClassified());
+		assertEquals(RoaringBitmap.bitmapOf(0), index.getUnclassified());
+		assertEquals(RoaringBitmap.bitmapOf(1), index.get("Uniclass"));
+		assertEquals(new RoaringBitmap(), index.get("Unknown"));
+		assertEquals(13, index.getOid(3));
+
+		Map<String, Integer> expected = new TreeMap<>();
+		expected.put("IfcDoor", 1);
+		expected.put("IfcWall", 3);
+		assertEquals(expected, index.countByType(index.getAll()));
+		expected.remove("IfcDoor");
+		expected.put("IfcWall", 1);
+		assertEquals(expected, index.countByType(index.getUnclassified()));
+	}
+}
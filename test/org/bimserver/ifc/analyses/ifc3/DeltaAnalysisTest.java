@@ -0,0 +1,172 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bimserver.bimbots.BimBotsInput;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.models.geometry.GeometryInfo;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySingleValue;
+import org.bimserver.models.ifc2x3tc1.IfcQuantityVolume;
+import org.bimserver.plugins.PluginConfiguration;
+import org.bimserver.plugins.SchemaName;
+import org.junit.Test;
+
+/**
+ * Changes objects that are shared by products or hang below them, which gives
+ * them a new rid but leaves the rid of the products as it is, and checks that
+ * an incremental run gives the same output as a full run.
+ */
+public class DeltaAnalysisTest {
+
+	private static final int PRODUCTS = 5000;
+
+	@Test
+	public void deltaRunEqualsFullRun() throws Exception {
+		Path deltaDirectory = Files.createTempDirectory("delta");
+		IfcModelInterface model = createModel();
+		AnalysesServiceDetailed service = new AnalysesServiceDetailed();
+		service.configure(systemSettings(deltaDirectory));
+		service.runBimBot(input(model), configuration(), new ModelRevision(1, 10, 0));
+
+		change(model);
+		byte[] delta = service.runBimBot(input(model), configuration(), new ModelRevision(1, 11, 10)).getData();
+		byte[] full = new AnalysesServiceDetailed().runBimBot(input(model), configuration(), null).getData();
+		assertEquals(new String(full, StandardCharsets.UTF_8), new String(delta, StandardCharsets.UTF_8));
+
+		Path stateFile = deltaDirectory.resolve("AnalysesServiceDetailed-1.state");
+		assertEquals(11, ProductState.read(stateFile, new AnalysesConfiguration(configuration()).getResultKey()).getRevision());
+	}
+
+	@Test
+	public void replaysOnlyUnchangedInputs() {
+		IfcModelInterface model = createModel();
+		AnalysesConfiguration configuration = new AnalysesConfiguration(configuration());
+		ProductState state = new Analysis(true, configuration).runIncremental(model, null);
+
+		Analysis unchanged = new Analysis(true, configuration);
+		unchanged.runIncremental(model, state);
+		assertEquals(unchanged.getProductCount(), unchanged.getReusedCount());
+
+		change(model);
+		Analysis changed = new Analysis(true, configuration);
+		changed.runIncremental(model, state);
+		assertTrue(changed.getReusedCount() > 0);
+		// A shared property set alone is used by dozens of products
+		assertTrue(changed.getReusedCount() < changed.getProductCount() - 50);
+	}
+
+	@Test
+	public void readsNoFeaturesOfAnUnchangedRevision() {
+		IfcModelInterface model = createModel();
+		// The modules that only add what extract put in the record, breakdown and classifications read the model when they add a product
+		Map<String, Object> settings = new HashMap<>();
+		for (AnalysisModule module : AnalysisModule.values()) {
+			settings.put(module.getIdentifier(), module != AnalysisModule.BREAKDOWN && module != AnalysisModule.CLASSIFICATIONS && module != AnalysisModule.COVERAGE);
+		}
+		settings.put(AnalysesConfiguration.TOP_K, 0);
+		AnalysesConfiguration configuration = new AnalysesConfiguration(AnalysesConfiguration.createPluginConfiguration(settings));
+		ProductState state = new Analysis(false, configuration).runIncremental(model, null);
+		AtomicLong reads = StandInModel.countFeatureReads(model);
+
+		Analysis unchanged = new Analysis(false, configuration);
+		unchanged.runIncremental(model, state);
+		assertEquals(unchanged.getProductCount(), unchanged.getReusedCount());
+		assertEquals(0, reads.get());
+
+		new Analysis(false, configuration).run(model);
+		long full = reads.getAndSet(0);
+		change(model);
+		Analysis changed = new Analysis(false, configuration);
+		changed.runIncremental(model, state);
+		assertTrue(changed.getReusedCount() < changed.getProductCount());
+		// Only the changed products and relations are read
+		assertTrue(reads.get() + " of " + full + " reads", reads.get() * 10 < full);
+	}
+
+	@Test
+	public void doesNotKeepStateWithoutRevision() throws Exception {
+		Path deltaDirectory = Files.createTempDirectory("delta");
+		IfcModelInterface model = createModel();
+		AnalysesService service = new AnalysesService();
+		service.configure(systemSettings(deltaDirectory));
+		byte[] output = service.runBimBot(input(model), configuration(), null).getData();
+		assertFalse(Files.list(deltaDirectory).findAny().isPresent());
+		assertArrayEquals(new AnalysesService().runBimBot(input(model), configuration(), null).getData(), output);
+	}
+
+	@Test
+	public void ignoresDeltaDirectoryInUserSettings() throws Exception {
+		Path deltaDirectory = Files.createTempDirectory("delta");
+		Map<String, Object> settings = new HashMap<>();
+		settings.put(AnalysesConfiguration.DELTA_DIRECTORY, deltaDirectory.toString());
+		new AnalysesService().runBimBot(input(createModel()), AnalysesConfiguration.createPluginConfiguration(settings), new ModelRevision(1, 10, 0));
+		assertFalse(Files.list(deltaDirectory).findAny().isPresent());
+	}
+
+	private static IfcModelInterface createModel() {
+		return new StandInModel().setProducts(PRODUCTS).setPsetFanOut(2).setVoodooShare(0.3).create();
+	}
+
+	/**
+	 * Renames a Pset_ property of a shared property set, which makes its set
+	 * voodoo, changes a volume and the triangles of a mesh and renames a
+	 * product, each with a new rid.
+	 */
+	private static void change(IfcModelInterface model) {
+		for (IfcPropertySingleValue property : model.getAll(IfcPropertySingleValue.class)) {
+			if (property.getName().startsWith(PropertySetAccumulator.STANDARD_SET_PREFIX)) {
+				property.setName("Custom_" + property.getName());
+				StandInModel.setRid(property, 2);
+				break;
+			}
+		}
+		IfcQuantityVolume volume = model.getAll(IfcQuantityVolume.class).get(10);
+		volume.setVolumeValue(1000);
+		StandInModel.setRid(volume, 2);
+		List<IfcProduct> products = model.getAllWithSubTypes(IfcProduct.class);
+		for (IfcProduct product : products.subList(20, products.size())) {
+			GeometryInfo geometryInfo = product.getGeometry();
+			if (geometryInfo != null) {
+				geometryInfo.setPrimitiveCount(100000);
+				StandInModel.setRid(geometryInfo, 2);
+				break;
+			}
+		}
+		IfcProduct product = products.get(30);
+		product.setName("Renamed");
+		StandInModel.setRid(product, 2);
+	}
+
+	private static BimBotsInput input(IfcModelInterface model) {
+		BimBotsInput input = new BimBotsInput(SchemaName.IFC_STEP_2X3TC1, null);
+		input.setIfcModel(model);
+		return input;
+	}
+
+	private static PluginConfiguration configuration() {
+		Map<String, Object> settings = new HashMap<>();
+		for (AnalysisModule module : AnalysisModule.values()) {
+			settings.put(module.getIdentifier(), true);
+		}
+		settings.put(AnalysesConfiguration.TOP_METRIC, RankingMetric.TRIANGLES_PER_M3.name());
+		return AnalysesConfiguration.createPluginConfiguration(settings);
+	}
+
+	private static PluginConfiguration systemSettings(Path deltaDirectory) {
+		Map<String, Object> settings = new HashMap<>();
+		settings.put(AnalysesConfiguration.DELTA_DIRECTORY, deltaDirectory.toString());
+		return AnalysesConfiguration.createPluginConfiguration(settings);
+	}
+}
@@ -0,0 +1,138 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.IfcModelInterfaceException;
+import org.bimserver.ifc.BasicIfcModel;
+import org.bimserver.models.geometry.Buffer;
+import org.bimserver.models.geometry.GeometryData;
+import org.bimserver.models.geometry.GeometryInfo;
+import org.bimserver.models.geometry.GeometryPackage;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.eclipse.emf.ecore.EClass;
+import org.junit.Test;
+
+public class DuplicateGeometryTest {
+
+	private final IfcModelInterface model = new BasicIfcModel(StandInModel.getPackageMetaData(), null);
+	private long nextOid = 1;
+	private int nextProduct = 1;
+
+	@Test
+	public void groupsEqualMeshes() throws Exception {
+		// Two copies of one mesh and a product that shares the first copy
+		GeometryData data = addProduct(mesh(4, 0));
+		addProduct(mesh(4, 0));
+		share(data);
+		// A mesh and the same mesh with floating point noise
+		addProduct(mesh(10, 0));
+		addProduct(mesh(10, 1e-6f));
+		// Different meshes, which are not duplicates
+		addProduct(mesh(6, 0));
+		addProduct(mesh(7, 0));
+
+		DuplicateGeometryAccumulator duplicates = run();
+		assertEquals(2, duplicates.getDuplicateGroups());
+		assertEquals(1, duplicates.getIdenticalGroups());
+		assertEquals(5, duplicates.getDuplicateProducts());
+		assertEquals(1, duplicates.getSharedProducts());
+		assertEquals(4 + 10, duplicates.getTrianglesSaved());
+
+		int[] worst = duplicates.getWorst();
+		assertEquals(2, worst.length);
+		assertEquals("Product 4", duplicates.getWorstName(0));
+		assertEquals("IfcWall", duplicates.getWorstType(0));
+		assertEquals(2, duplicates.getProducts(worst[0]));
+		assertEquals(2, duplicates.getMeshes(worst[0]));
+		assertFalse(duplicates.isIdentical(worst[0]));
+		assertEquals("Product 1", duplicates.getWorstName(1));
+		assertEquals(3, duplicates.getProducts(worst[1]));
+		assertEquals(2, duplicates.getMeshes(worst[1]));
+		assertTrue(duplicates.isIdentical(worst[1]));
+	}
+
+	@Test
+	public void doesNotGroupDifferentMeshes() throws Exception {
+		// The same indices, but vertices of another size or at another place
+		addProduct(mesh(4, 0));
+		addProduct(transform(mesh(4, 0), 2, 0));
+		addProduct(transform(mesh(4, 0), 1, 1));
+		GeometryData data = addProduct(mesh(5, 0));
+		share(data);
+		share(data);
+
+		DuplicateGeometryAccumulator duplicates = run();
+		assertEquals(0, duplicates.getDuplicateGroups());
+		assertEquals(0, duplicates.getTrianglesSaved());
+		assertEquals(2, duplicates.getSharedProducts());
+		assertEquals(0, duplicates.getWorst().length);
+	}
+
+	private DuplicateGeometryAccumulator run() {
+		DuplicateGeometryAccumulator duplicates = new DuplicateGeometryAccumulator(10);
+		new AnalysisEngine(duplicates).run(model);
+		return duplicates;
+	}
+
+	/**
+	 * @return the index and vertex buffer of a strip of triangles, with noise
+	 *         added to every other vertex
+	 */
+	private static byte[][] mesh(int triangles, float noise) {
+		ByteBuffer indices = ByteBuffer.allocate(triangles * 12).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < triangles; i++) {
+			indices.putInt(i).putInt(i + 1).putInt(i + 2);
+		}
+		int nrVertices = triangles + 2;
+		ByteBuffer vertices = ByteBuffer.allocate(nrVertices * 12).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < nrVertices; i++) {
+			vertices.putFloat(i / 2 + (i % 2) * noise).putFloat(i % 2).putFloat(1);
+		}
+		return new byte[][] { indices.array(), vertices.array() };
+	}
+
+	private static byte[][] transform(byte[][] mesh, float scale, float offset) {
+		ByteBuffer vertices = ByteBuffer.wrap(mesh[1]).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < mesh[1].length; i += 4) {
+			vertices.putFloat(i, vertices.getFloat(i) * scale + offset);
+		}
+		return mesh;
+	}
+
+	private GeometryData addProduct(byte[][] mesh) throws IfcModelInterfaceException {
+		GeometryData data = add(GeometryPackage.eINSTANCE.getGeometryData());
+		data.setIndices(buffer(mesh[0]));
+		data.setVertices(buffer(mesh[1]));
+		data.setNormals(buffer(mesh[1]));
+		share(data);
+		return data;
+	}
+
+	private void share(GeometryData data) throws IfcModelInterfaceException {
+		IfcProduct product = add(Ifc2x3tc1Package.eINSTANCE.getIfcWall());
+		product.setName("Product " + nextProduct++);
+		GeometryInfo geometryInfo = add(GeometryPackage.eINSTANCE.getGeometryInfo());
+		geometryInfo.setData(data);
+		product.setGeometry(geometryInfo);
+	}
+
+	private Buffer buffer(byte[] bytes) throws IfcModelInterfaceException {
+		Buffer buffer = add(GeometryPackage.eINSTANCE.getBuffer());
+		buffer.setData(bytes);
+		return buffer;
+	}
+
+	private <T extends IdEObject> T add(EClass eClass) throws IfcModelInterfaceException {
+		T object = model.createAndAdd(eClass, nextOid++);
+		StandInModel.setRid(object, 1);
+		return object;
+	}
+}
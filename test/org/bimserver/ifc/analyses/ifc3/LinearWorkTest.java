@@ -0,0 +1,40 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.junit.Test;
+
+/**
+ * Checks that a detailed analysis reads the same number of features per
+ * product from a model four times as large, so no module walks other products
+ * or relations for every product. The time of the passes that kept their
+ * objects in lists guarded by contains() is measured by the ScalingBenchmark
+ * of the benchmarks module instead, timings are not stable enough for a test.
+ */
+public class LinearWorkTest {
+
+	private static final int PRODUCTS = 32_000;
+	private static final int STOREYS = 4;
+
+	@Test
+	public void detailedAnalysisReadsLinearlyManyFeatures() {
+		double quarter = getReadsPerProduct(PRODUCTS / 4);
+		double full = getReadsPerProduct(PRODUCTS);
+		assertEquals(quarter, full, quarter * 0.02);
+	}
+
+	private double getReadsPerProduct(int products) {
+		IfcModelInterface model = new StandInModel().setProducts(products).setStoreys(STOREYS).setGeometryShare(0).setVoodooShare(0.5).setClassificationDensity(0.9).create();
+		Analysis analysis = new Analysis(true, new AnalysesConfiguration(null));
+		AtomicLong reads = StandInModel.countFeatureReads(model);
+		analysis.run(model);
+		assertEquals(products + STOREYS, analysis.getProductCount());
+		assertTrue(analysis.getPropertySets().getObjectWithVodooSetCount() > 0);
+		assertTrue(analysis.getClassifications().getClassifiedObjectCount() > products / 2);
+		return (double) reads.get() / products;
+	}
+}
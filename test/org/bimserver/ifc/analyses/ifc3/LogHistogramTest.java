@@ -0,0 +1,105 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LogHistogramTest {
+
+	private static final double BUCKET_WIDTH = 1.0 / LogHistogram.SUB_BUCKETS;
+
+	@Test
+	public void givesTheUpperBoundOfTheBucket() {
+		LogHistogram histogram = new LogHistogram();
+		// 16 and 17 are the lower edges of two neighbouring buckets, the value just below 17 is in the bucket of 16
+		histogram.add(16);
+		histogram.add(Math.nextDown(17.0));
+		histogram.add(17);
+		histogram.add(100);
+		assertEquals(17, histogram.getQuantile(0.25), 0);
+		assertEquals(17, histogram.getQuantile(0.5), 0);
+		assertEquals(18, histogram.getQuantile(0.75), 0);
+		// Never more than the maximum, although its bucket ends at 104
+		assertEquals(100, histogram.getQuantile(1), 0);
+		assertEquals(100, histogram.getMax(), 0);
+	}
+
+	@Test
+	public void isWithinABucketOfTheExactQuantile() {
+		Random random = new Random(3);
+		LogHistogram histogram = new LogHistogram();
+		List<Double> values = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			double value;
+			if (i % 3 == 0) {
+				// The lower edges of the buckets
+				value = Math.scalb(1 + random.nextInt(LogHistogram.SUB_BUCKETS) * BUCKET_WIDTH, random.nextInt(40) - 10);
+			} else {
+				value = Math.exp(random.nextDouble() * 30 - 5);
+			}
+			histogram.add(value);
+			values.add(value);
+		}
+		Collections.sort(values);
+		for (double q : new double[] { 0.001, 0.1, 0.5, 0.9, 0.99, 1 }) {
+			double exact = values.get((int) Math.ceil(q * values.size()) - 1);
+			double quantile = histogram.getQuantile(q);
+			assertTrue(quantile >= exact);
+			assertTrue(quantile <= exact * (1 + BUCKET_WIDTH));
+		}
+	}
+
+	@Test
+	public void countsZerosSeparately() {
+		LogHistogram histogram = new LogHistogram();
+		assertEquals(0, histogram.getQuantile(0.5), 0);
+		for (int i = 0; i < 10; i++) {
+			histogram.add(i < 5 ? 0 : 1 << i);
+		}
+		histogram.add(-1);
+		histogram.add(Double.NaN);
+		assertEquals(10, histogram.getCount());
+		assertEquals(5, histogram.getZeroCount());
+		assertEquals(0, histogram.getQuantile(0.5), 0);
+		assertEquals(32 * (1 + BUCKET_WIDTH), histogram.getQuantile(0.6), 0);
+	}
+
+	@Test
+	public void mergeEqualsSingleHistogram() {
+		LogHistogram single = new LogHistogram();
+		LogHistogram merged = new LogHistogram();
+		LogHistogram part = new LogHistogram();
+		for (int i = 0; i < 1000; i++) {
+			double value = (i * 7919) % 1000 / 8.0;
+			single.add(value);
+			(i < 500 ? merged : part).add(value);
+		}
+		merged.merge(part);
+		assertEquals(single.getCount(), merged.getCount());
+		assertEquals(single.getZeroCount(), merged.getZeroCount());
+		assertArrayEquals(single.getOctaveCounts(), merged.getOctaveCounts());
+		for (double q : new double[] { 0.1, 0.5, 0.9, 1 }) {
+			assertEquals(single.getQuantile(q), merged.getQuantile(q), 0);
+		}
+	}
+
+	@Test
+	public void countsPerOctave() {
+		LogHistogram histogram = new LogHistogram();
+		histogram.add(1);
+		histogram.add(Math.nextDown(2.0));
+		histogram.add(2);
+		long[] octaves = histogram.getOctaveCounts();
+		for (int octave = 0; octave < octaves.length; octave++) {
+			double lowerBound = LogHistogram.getOctaveLowerBound(octave);
+			assertEquals(lowerBound == 1 ? 2 : lowerBound == 2 ? 1 : 0, octaves[octave]);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bimserver.bimbots.BimBotsInput;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.models.geometry.GeometryData;
+import org.bimserver.models.ifc2x3tc1.IfcClassificationReference;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySet;
+import org.bimserver.models.ifc2x3tc1.IfcRelAssociatesClassification;
+import org.bimserver.models.ifc2x3tc1.IfcRelContainedInSpatialStructure;
+import org.bimserver.plugins.PluginConfiguration;
+import org.bimserver.plugins.SchemaName;
+import org.junit.Test;
+
+public class ModelSourceTest {
+
+	private final IfcModelInterface revision = new StandInModel().setProducts(3000).create();
+
+	@Test
+	public void queriedSubsetGivesTheResultsOfTheCompleteModel() throws Exception {
+		Map<String, Object> all = new HashMap<>();
+		for (AnalysisModule module : AnalysisModule.values()) {
+			all.put(module.getIdentifier(), true);
+		}
+		Map<String, Object> geometryBytes = new HashMap<>(all);
+		geometryBytes.put(AnalysesConfiguration.TOP_METRIC, RankingMetric.GEOMETRY_BYTES.name());
+		Map<String, Object> perM3 = new HashMap<>(all);
+		perM3.put(AnalysesConfiguration.TOP_METRIC, RankingMetric.TRIANGLES_PER_M3.name());
+
+		List<Map<String, Object>> configurations = Arrays.asList(new HashMap<>(), all, geometryBytes, perM3);
+		for (Map<String, Object> settings : configurations) {
+			for (AbstractAnalysesService service : new AbstractAnalysesService[] { new AnalysesService(), new AnalysesServiceDetailed() }) {
+				StandInQueryModel model = new StandInQueryModel(revision);
+				// BIMserver passes the number of objects of the revision from its summary
+				String queried = run(service, model, ModelSource.QUERY, settings, new ModelRevision(1, 10, 0, revision.size()));
+				assertEquals(1, model.getQueries().size());
+				assertEquals(run(service, revision, ModelSource.INPUT, settings, null), queried);
+			}
+		}
+	}
+
+	@Test
+	public void loadsOnlyWhatTheModulesRead() throws Exception {
+		Map<String, Object> settings = new HashMap<>();
+		for (AnalysisModule module : AnalysisModule.values()) {
+			settings.put(module.getIdentifier(), module == AnalysisModule.PROXIES);
+		}
+		settings.put(AnalysesConfiguration.TOP_K, 0);
+		StandInQueryModel model = new StandInQueryModel(revision);
+		run(new AnalysesService(), model, ModelSource.QUERY, settings, null);
+
+		assertTrue(model.size() < revision.size() / 2);
+		assertTrue(model.getAll(IfcPropertySet.class).isEmpty());
+		assertTrue(model.getAll(IfcRelAssociatesClassification.class).isEmpty());
+		for (IfcProduct product : model.getAllWithSubTypes(IfcProduct.class)) {
+			assertNull(product.getGeometry());
+		}
+	}
+
+	@Test
+	public void loadsOnlyWhatTheSampleReads() throws Exception {
+		Map<String, Object> settings = new HashMap<>();
+		for (AnalysisModule module : AnalysisModule.values()) {
+			settings.put(module.getIdentifier(), true);
+		}
+		settings.put(AnalysesConfiguration.SAMPLE_OBJECTS, 500);
+		for (AbstractAnalysesService service : new AbstractAnalysesService[] { new AnalysesService(), new AnalysesServiceDetailed() }) {
+			StandInQueryModel model = new StandInQueryModel(revision);
+			String queried = run(service, model, ModelSource.QUERY, settings, new ModelRevision(1, 10, 0, revision.size()));
+			assertEquals(run(service, revision, ModelSource.INPUT, settings, null), queried);
+
+			assertTrue(model.getAll(GeometryData.class).isEmpty());
+			assertTrue(model.getAll(IfcRelContainedInSpatialStructure.class).isEmpty());
+			assertTrue(model.getAll(IfcClassificationReference.class).isEmpty());
+			assertFalse(model.getAll(IfcRelAssociatesClassification.class).isEmpty());
+		}
+	}
+
+	@Test
+	public void preloadsOnlyForTheInputSource() {
+		AnalysesService service = new AnalysesService();
+		assertFalse(service.preloadCompleteModel());
+		service.setModelSource(ModelSource.INPUT);
+		assertTrue(service.preloadCompleteModel());
+	}
+
+	private static String run(AbstractAnalysesService service, IfcModelInterface model, ModelSource modelSource, Map<String, Object> settings, ModelRevision revision)
+			throws Exception {
+		PluginConfiguration pluginConfiguration = AnalysesConfiguration.createPluginConfiguration(settings);
+		BimBotsInput input = new BimBotsInput(SchemaName.IFC_STEP_2X3TC1, null);
+		input.setIfcModel(model);
+		service.setModelSource(modelSource);
+		return new String(service.runBimBot(input, pluginConfiguration, revision).getData(), StandardCharsets.UTF_8);
+	}
+}
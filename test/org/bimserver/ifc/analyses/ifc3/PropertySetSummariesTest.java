@@ -0,0 +1,72 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.models.ifc2x3tc1.IfcProperty;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySet;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySetDefinition;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySingleValue;
+import org.bimserver.models.ifc2x3tc1.IfcRelDefinesByProperties;
+import org.junit.Test;
+
+public class PropertySetSummariesTest {
+
+	private final IfcModelInterface model = new StandInModel().setProducts(2000).setVoodooShare(0.5).create();
+
+	@Test
+	public void summarizesEveryPropertySet() {
+		PropertySetSummaries.Local summaries = new PropertySetSummaries().local();
+		int voodooSets = 0;
+		for (IfcRelDefinesByProperties def : model.getAll(IfcRelDefinesByProperties.class)) {
+			int flags = 0;
+			int propCount = 0;
+			IfcPropertySetDefinition definition = def.getRelatingPropertyDefinition();
+			if (definition instanceof IfcPropertySet) {
+				IfcPropertySet propertySet = (IfcPropertySet) definition;
+				if (!propertySet.getName().startsWith(PropertySetAccumulator.STANDARD_SET_PREFIX)) {
+					flags |= ProductRecord.VODOO_SET;
+					voodooSets++;
+				}
+				for (IfcProperty property : propertySet.getHasProperties()) {
+					if (!property.getName().startsWith(PropertySetAccumulator.STANDARD_SET_PREFIX)) {
+						flags |= ProductRecord.VODOO_PROP;
+					}
+					if (property instanceof IfcPropertySingleValue) {
+						propCount++;
+					}
+				}
+			}
+			int summary = summaries.get(def);
+			assertEquals(flags, PropertySetSummaries.getFlags(summary));
+			assertEquals(propCount, PropertySetSummaries.getPropCount(summary));
+		}
+		assertTrue(voodooSets > 0);
+	}
+
+	@Test
+	public void readsEveryRelationOnce() {
+		List<IfcRelDefinesByProperties> relations = model.getAll(IfcRelDefinesByProperties.class);
+		PropertySetSummaries summaries = new PropertySetSummaries();
+		AtomicLong reads = StandInModel.countFeatureReads(model);
+		PropertySetSummaries.Local first = summaries.local();
+		for (IfcRelDefinesByProperties def : relations) {
+			first.get(def);
+		}
+		long firstReads = reads.get();
+		assertTrue(firstReads > 0);
+
+		// Another chunk finds the summaries in the shared memo, and then in its own copy
+		PropertySetSummaries.Local second = summaries.local();
+		for (int i = 0; i < 2; i++) {
+			for (IfcRelDefinesByProperties def : relations) {
+				second.get(def);
+			}
+		}
+		assertEquals(firstReads, reads.get());
+	}
+}
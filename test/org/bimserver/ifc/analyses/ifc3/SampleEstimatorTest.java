@@ -0,0 +1,61 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.bimserver.emf.IfcModelInterface;
+import org.junit.Test;
+
+public class SampleEstimatorTest {
+
+	// Walls, slabs, doors and proxies, and the 4 storeys
+	private static final int STRATA = 5;
+
+	private final IfcModelInterface model = new StandInModel().setProducts(1000).setVoodooShare(0.5).create();
+
+	@Test
+	public void coversEveryStratumBeforeDoubling() {
+		SampleEstimator estimator = estimate(2 * STRATA);
+		assertEquals(STRATA, estimator.getStrata());
+		assertEquals(STRATA, estimator.getStrataCovered());
+		assertTrue(estimator.isCovered());
+		assertTrue(estimator.getTriangles().hasInterval());
+		assertTrue(estimator.getTrianglesPerM3().hasInterval());
+		assertTrue(estimator.getVoodooShare().hasInterval());
+	}
+
+	@Test
+	public void hasNoIntervalWithoutCoveringEveryStratum() {
+		for (int budget : new int[] { 3, STRATA, 2 * STRATA - 1 }) {
+			SampleEstimator estimator = estimate(budget);
+			assertEquals(budget, estimator.getSampled());
+			assertEquals(Math.max(0, budget - STRATA), estimator.getStrataCovered());
+			assertFalse(estimator.isCovered());
+			assertFalse(estimator.getTriangles().hasInterval());
+			assertFalse(estimator.getTrianglesPerM3().hasInterval());
+			assertFalse(estimator.getVoodooShare().hasInterval());
+			assertFalse(estimator.getClassificationCoverage().hasInterval());
+			assertTrue(estimator.getTriangles().getValue() > 0);
+		}
+	}
+
+	@Test
+	public void isExactWithoutBudget() {
+		SampleEstimator estimator = estimate(0);
+		assertTrue(estimator.isComplete());
+		Analysis analysis = new Analysis(true, new AnalysesConfiguration(null));
+		analysis.run(model);
+		assertEquals(analysis.getProductCount(), estimator.getSampled());
+		assertEquals(0, estimator.getTriangles().getHalfWidth(), 0);
+		assertEquals(analysis.getGeometry().getTotalTriangles(), estimator.getTriangles().getValue(), 1e-6);
+		assertTrue(analysis.getClassifications().getClassifiedObjectCount() > 0);
+		assertEquals(analysis.getClassifications().getClassifiedObjectCount(), estimator.getClassificationCoverage().getValue() * estimator.getProductCount(), 1e-6);
+	}
+
+	private SampleEstimator estimate(int budgetObjects) {
+		SampleEstimator estimator = new SampleEstimator(0, budgetObjects, true, true, true, 1);
+		estimator.run(model);
+		return estimator;
+	}
+}
@@ -0,0 +1,318 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IdEObjectImpl;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.IfcModelInterfaceException;
+import org.bimserver.emf.PackageMetaData;
+import org.bimserver.emf.Schema;
+import org.bimserver.ifc.BasicIfcModel;
+import org.bimserver.models.geometry.Buffer;
+import org.bimserver.models.geometry.GeometryData;
+import org.bimserver.models.geometry.GeometryInfo;
+import org.bimserver.models.geometry.GeometryPackage;
+import org.bimserver.models.ifc2x3tc1.IfcBuildingElementProxy;
+import org.bimserver.models.ifc2x3tc1.IfcBuildingStorey;
+import org.bimserver.models.ifc2x3tc1.IfcClassificationReference;
+import org.bimserver.models.ifc2x3tc1.IfcElement;
+import org.bimserver.models.ifc2x3tc1.IfcElementQuantity;
+import org.bimserver.models.ifc2x3tc1.IfcProduct;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySet;
+import org.bimserver.models.ifc2x3tc1.IfcPropertySingleValue;
+import org.bimserver.models.ifc2x3tc1.IfcQuantityVolume;
+import org.bimserver.models.ifc2x3tc1.IfcRelAssociatesClassification;
+import org.bimserver.models.ifc2x3tc1.IfcRelContainedInSpatialStructure;
+import org.bimserver.models.ifc2x3tc1.IfcRelDefinesByProperties;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
+import org.eclipse.emf.ecore.EClass;
+
+/**
+ * Generates IFC2x3 models in memory, without a BIMserver or an IFC file, as a
+ * stand-in for the models the services get. Products are walls, slabs, doors
+ * and proxies on a number of storeys, with shared property sets, an element
+ * quantity with a volume when they have geometry, classification references
+ * and meshes that are drawn from a small pool of shapes, so some are
+ * duplicates. ContainedInStructure and HasAssociations have no EMF opposite,
+ * so they are set explicitly, as BIMserver does. The same settings and seed
+ * always give the same model, with oids that count up from 1 in creation
+ * order. The feature reads of a model can be counted, see
+ * {@link #countFeatureReads(IfcModelInterface)}.
+ */
+public class StandInModel {
+
+	private static final int SHAPES = 32;
+	private static final int PRODUCTS_PER_RELATION = 64;
+	private static final EClass[] PRODUCT_TYPES = { Ifc2x3tc1Package.eINSTANCE.getIfcWall(), Ifc2x3tc1Package.eINSTANCE.getIfcSlab(), Ifc2x3tc1Package.eINSTANCE.getIfcDoor(),
+			Ifc2x3tc1Package.eINSTANCE.getIfcBuildingElementProxy() };
+
+	private static PackageMetaData packageMetaData;
+
+	private int products = 1000;
+	private int psetFanOut = 3;
+	private double voodooShare = 0.2;
+	private double classificationDensity = 0.5;
+	private double geometryShare = 0.8;
+	private int storeys = 4;
+	private long seed = 1;
+
+	private IfcModelInterface model;
+	private long nextOid;
+	private Random random;
+
+	/**
+	 * @param products
+	 *            the number of IfcProducts besides the storeys
+	 */
+	public StandInModel setProducts(int products) {
+		this.products = products;
+		return this;
+	}
+
+	/**
+	 * @param psetFanOut
+	 *            the number of property sets per product. Every property set
+	 *            is shared by about {@value #PRODUCTS_PER_RELATION} products
+	 */
+	public StandInModel setPsetFanOut(int psetFanOut) {
+		this.psetFanOut = psetFanOut;
+		return this;
+	}
+
+	/**
+	 * @param voodooShare
+	 *            the share of the property sets and properties whose name does
+	 *            not start with Pset_
+	 */
+	public StandInModel setVoodooShare(double voodooShare) {
+		this.voodooShare = voodooShare;
+		return this;
+	}
+
+	/**
+	 * @param classificationDensity
+	 *            the share of the products with a classification reference
+	 */
+	public StandInModel setClassificationDensity(double classificationDensity) {
+		this.classificationDensity = classificationDensity;
+		return this;
+	}
+
+	/**
+	 * @param geometryShare
+	 *            the share of the products with geometry and a volume
+	 */
+	public StandInModel setGeometryShare(double geometryShare) {
+		this.geometryShare = geometryShare;
+		return this;
+	}
+
+	public StandInModel setStoreys(int storeys) {
+		this.storeys = Math.max(1, storeys);
+		return this;
+	}
+
+	public StandInModel setSeed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+
+	public IfcModelInterface create() {
+		model = new CountingModel();
+		model.getModelMetaData().setName("Stand-in model " + products);
+		nextOid = 1;
+		random = new Random(seed);
+
+		List<IfcBuildingStorey> storeyList = new ArrayList<>();
+		for (int i = 0; i < storeys; i++) {
+			IfcBuildingStorey storey = add(Ifc2x3tc1Package.eINSTANCE.getIfcBuildingStorey());
+			storey.setName("Storey " + i);
+			storey.setElevation(i * 3.0);
+			storeyList.add(storey);
+		}
+
+		List<IfcRelDefinesByProperties> psets = new ArrayList<>();
+		int nrOfPsets = Math.max(1, (int) ((long) products * psetFanOut / PRODUCTS_PER_RELATION));
+		for (int i = 0; i < nrOfPsets && psetFanOut > 0; i++) {
+			IfcPropertySet propertySet = add(Ifc2x3tc1Package.eINSTANCE.getIfcPropertySet());
+			propertySet.setName(name(i, "Common"));
+			for (int j = 0; j < 3; j++) {
+				IfcPropertySingleValue property = add(Ifc2x3tc1Package.eINSTANCE.getIfcPropertySingleValue());
+				property.setName(name(j, "Property"));
+				propertySet.getHasProperties().add(property);
+			}
+			IfcRelDefinesByProperties relation = add(Ifc2x3tc1Package.eINSTANCE.getIfcRelDefinesByProperties());
+			relation.setRelatingPropertyDefinition(propertySet);
+			psets.add(relation);
+		}
+
+		byte[][] indices = new byte[SHAPES][];
+		byte[][] vertices = new byte[SHAPES][];
+		for (int shape = 0; shape < SHAPES; shape++) {
+			indices[shape] = createIndices(shape);
+			vertices[shape] = createVertices(shape);
+		}
+
+		IfcRelContainedInSpatialStructure containment = null;
+		IfcRelAssociatesClassification classification = null;
+		int classified = 0;
+		for (int i = 0; i < products; i++) {
+			IfcProduct product = add(PRODUCT_TYPES[i % PRODUCT_TYPES.length]);
+			product.setName("Product " + i);
+			if (i % PRODUCTS_PER_RELATION == 0) {
+				containment = add(Ifc2x3tc1Package.eINSTANCE.getIfcRelContainedInSpatialStructure());
+				containment.setRelatingStructure(storeyList.get(i / PRODUCTS_PER_RELATION % storeys));
+			}
+			if (!(product instanceof IfcBuildingElementProxy) || i % 8 != 3) {
+				containment.getRelatedElements().add(product);
+				((IfcElement) product).getContainedInStructure().add(containment);
+			}
+			for (int j = 0; j < psetFanOut; j++) {
+				psets.get((int) (((long) i * psetFanOut + j) % psets.size())).getRelatedObjects().add(product);
+			}
+			if (random.nextDouble() < classificationDensity) {
+				if (classified++ % PRODUCTS_PER_RELATION == 0) {
+					IfcClassificationReference reference = add(Ifc2x3tc1Package.eINSTANCE.getIfcClassificationReference());
+					reference.setName("Class " + (classified / PRODUCTS_PER_RELATION % 5));
+					classification = add(Ifc2x3tc1Package.eINSTANCE.getIfcRelAssociatesClassification());
+					classification.setRelatingClassification(reference);
+				}
+				classification.getRelatedObjects().add(product);
+				product.getHasAssociations().add(classification);
+			}
+			if (random.nextDouble() < geometryShare) {
+				int shape = random.nextInt(SHAPES);
+				addGeometry(product, indices[shape], vertices[shape]);
+				addVolume(product, 0.5 + shape);
+			}
+		}
+		return model;
+	}
+
+	/**
+	 * Sets the rid of an object, as a new revision of a changed object would.
+	 */
+	public static void setRid(IdEObject object, int rid) {
+		((IdEObjectImpl) object).setRid(rid);
+	}
+
+	/**
+	 * Counts the features that are read from the objects of a stand-in model
+	 * from now on. The objects are marked as not loaded, so every feature read
+	 * asks the model to load the object, which only counts the read.
+	 * 
+	 * @return the number of feature reads so far
+	 */
+	public static AtomicLong countFeatureReads(IfcModelInterface model) {
+		for (IdEObject object : model.getValues()) {
+			((IdEObjectImpl) object).setLoadingState(IdEObjectImpl.State.TO_BE_LOADED);
+		}
+		AtomicLong reads = ((CountingModel) model).reads;
+		reads.set(0);
+		return reads;
+	}
+
+	/**
+	 * @return the package meta data of IFC2x3, shared by all stand-in models
+	 */
+	public static synchronized PackageMetaData getPackageMetaData() {
+		if (packageMetaData == null) {
+			try {
+				packageMetaData = new PackageMetaData(Ifc2x3tc1Package.eINSTANCE, Schema.IFC2X3TC1, Files.createTempDirectory("ifcanalyses"));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		return packageMetaData;
+	}
+
+	private String name(int index, String suffix) {
+		boolean voodoo = random.nextDouble() < voodooShare;
+		return (voodoo ? "Custom_" : "Pset_") + suffix + index;
+	}
+
+	private void addGeometry(IfcProduct product, byte[] indices, byte[] vertices) {
+		GeometryInfo geometryInfo = add(GeometryPackage.eINSTANCE.getGeometryInfo());
+		geometryInfo.setPrimitiveCount(indices.length / 12);
+		GeometryData geometryData = add(GeometryPackage.eINSTANCE.getGeometryData());
+		geometryData.setIndices(buffer(indices));
+		geometryData.setVertices(buffer(vertices));
+		geometryData.setNormals(buffer(vertices));
+		geometryInfo.setData(geometryData);
+		product.setGeometry(geometryInfo);
+	}
+
+	private Buffer buffer(byte[] data) {
+		Buffer buffer = add(GeometryPackage.eINSTANCE.getBuffer());
+		buffer.setData(data);
+		return buffer;
+	}
+
+	private void addVolume(IfcProduct product, double volume) {
+		IfcQuantityVolume quantity = add(Ifc2x3tc1Package.eINSTANCE.getIfcQuantityVolume());
+		quantity.setName("NetVolume");
+		quantity.setVolumeValue(volume);
+		IfcElementQuantity elementQuantity = add(Ifc2x3tc1Package.eINSTANCE.getIfcElementQuantity());
+		elementQuantity.setName("BaseQuantities");
+		elementQuantity.getQuantities().add(quantity);
+		IfcRelDefinesByProperties relation = add(Ifc2x3tc1Package.eINSTANCE.getIfcRelDefinesByProperties());
+		relation.setRelatingPropertyDefinition(elementQuantity);
+		relation.getRelatedObjects().add(product);
+	}
+
+	/**
+	 * A strip of 2 * (shape + 1) triangles.
+	 */
+	private static byte[] createIndices(int shape) {
+		int triangles = 2 * (shape + 1);
+		ByteBuffer buffer = ByteBuffer.allocate(triangles * 12).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < triangles; i++) {
+			buffer.putInt(i).putInt(i + 1).putInt(i + 2);
+		}
+		return buffer.array();
+	}
+
+	private static byte[] createVertices(int shape) {
+		int vertices = 2 * (shape + 1) + 2;
+		ByteBuffer buffer = ByteBuffer.allocate(vertices * 12).order(ByteOrder.LITTLE_ENDIAN);
+		for (int i = 0; i < vertices; i++) {
+			buffer.putFloat(i / 2).putFloat(i % 2).putFloat(shape);
+		}
+		return buffer.array();
+	}
+
+	private <T extends IdEObject> T add(EClass eClass) {
+		try {
+			T object = model.createAndAdd(eClass, nextOid++);
+			setRid(object, 1);
+			return object;
+		} catch (IfcModelInterfaceException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// The close of IfcModelInterface is not used
+	@SuppressWarnings("try")
+	private static class CountingModel extends BasicIfcModel {
+
+		private final AtomicLong reads = new AtomicLong();
+
+		CountingModel() {
+			super(StandInModel.getPackageMetaData(), null);
+		}
+
+		@Override
+		public void load(IdEObject object) {
+			reads.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bimserver.emf.IdEObject;
+import org.bimserver.emf.IfcModelInterface;
+import org.bimserver.emf.IfcModelInterfaceException;
+import org.bimserver.ifc.BasicIfcModel;
+import org.bimserver.models.geometry.GeometryPackage;
+import org.bimserver.models.ifc2x3tc1.Ifc2x3tc1Package;
+import org.eclipse.emf.common.util.EList;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * A stand-in for the client model of a revision that is not preloaded. It
+ * starts empty and {@link #query(ObjectNode, boolean)} copies the objects of
+ * the query types and of the include paths from a complete model, like the
+ * client query API does. Copies have all attributes, but only the references
+ * that an include path follows, so an analysis of this model only gives the
+ * results of the complete model when the query includes everything it reads.
+ * <p>
+ * After a query that does not assume a complete preload, the client model
+ * loads all objects of a type again on every lookup by type. Such lookups
+ * fail here, as do lookups before any query.
+ */
+// The close of IfcModelInterface is not used
+@SuppressWarnings("try")
+public class StandInQueryModel extends BasicIfcModel {
+
+	private final IfcModelInterface revision;
+	private final Map<IdEObject, IdEObject> copies = new IdentityHashMap<>();
+	private final List<ObjectNode> queries = new ArrayList<>();
+	private boolean assumeCompletePreload;
+
+	/**
+	 * @param revision
+	 *            the complete model of the revision
+	 */
+	public StandInQueryModel(IfcModelInterface revision) {
+		super(StandInModel.getPackageMetaData(), null);
+		this.revision = revision;
+	}
+
+	@Override
+	public void query(ObjectNode query, boolean assumeCompletePreload) throws IfcModelInterfaceException {
+		queries.add(query);
+		this.assumeCompletePreload = assumeCompletePreload;
+		for (JsonNode typeQuery : query.get("queries")) {
+			JsonNode type = typeQuery.get("type");
+			EClass eClass = getEClass(type.get("name").asText());
+			List<? extends IdEObject> objects = type.path("includeAllSubTypes").asBoolean() ? revision.getAllWithSubTypes(eClass) : revision.getAll(eClass);
+			for (IdEObject object : objects) {
+				copy(object);
+			}
+			for (JsonNode include : typeQuery.path("includes")) {
+				include(objects, include);
+			}
+		}
+	}
+
+	@Override
+	public <T extends IdEObject> List<T> getAll(EClass eClass) {
+		checkLoaded(eClass);
+		return super.getAll(eClass);
+	}
+
+	@Override
+	public <T extends IdEObject> List<T> getAllWithSubTypes(EClass eClass) {
+		checkLoaded(eClass);
+		return super.getAllWithSubTypes(eClass);
+	}
+
+	private void checkLoaded(EClass eClass) {
+		if (!assumeCompletePreload) {
+			throw new IllegalStateException("The client model would load all " + eClass.getName() + " objects of the revision again");
+		}
+	}
+
+	/**
+	 * @return the queries that were run on this model
+	 */
+	public List<ObjectNode> getQueries() {
+		return Collections.unmodifiableList(queries);
+	}
+
+	private void include(List<? extends IdEObject> objects, JsonNode include) throws IfcModelInterfaceException {
+		EClass type = getEClass(include.get("type").asText());
+		List<IdEObject> targets = new ArrayList<>();
+		Set<IdEObject> reached = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (IdEObject object : objects) {
+			if (!type.isSuperTypeOf(object.eClass())) {
+				continue;
+			}
+			EReference reference = (EReference) object.eClass().getEStructuralFeature(include.get("field").asText());
+			IdEObject copy = copies.get(object);
+			if (reference.isMany()) {
+				@SuppressWarnings("unchecked")
+				EList<IdEObject> copyList = (EList<IdEObject>) copy.eGet(reference);
+				for (Object target : (List<?>) object.eGet(reference)) {
+					IdEObject targetCopy = copy((IdEObject) target);
+					if (!copyList.contains(targetCopy)) {
+						copyList.add(targetCopy);
+					}
+					if (reached.add((IdEObject) target)) {
+						targets.add((IdEObject) target);
+					}
+				}
+			} else if (object.eGet(reference) != null) {
+				IdEObject target = (IdEObject) object.eGet(reference);
+				copy.eSet(reference, copy(target));
+				if (reached.add(target)) {
+					targets.add(target);
+				}
+			}
+		}
+		for (JsonNode nested : include.path("includes")) {
+			include(targets, nested);
+		}
+	}
+
+	private IdEObject copy(IdEObject object) throws IfcModelInterfaceException {
+		IdEObject copy = copies.get(object);
+		if (copy == null) {
+			copy = createAndAdd(object.eClass(), object.getOid());
+			StandInModel.setRid(copy, object.getRid());
+			for (EAttribute attribute : object.eClass().getEAllAttributes()) {
+				if (attribute.isChangeable() && !attribute.isDerived()) {
+					copyAttribute(object, copy, attribute);
+				}
+			}
+			copies.put(object, copy);
+		}
+		return copy;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void copyAttribute(IdEObject object, IdEObject copy, EStructuralFeature attribute) {
+		if (attribute.isMany()) {
+			((List<Object>) copy.eGet(attribute)).addAll((List<Object>) object.eGet(attribute));
+		} else if (object.eIsSet(attribute)) {
+			copy.eSet(attribute, object.eGet(attribute));
+		}
+	}
+
+	private static EClass getEClass(String name) {
+		EClass eClass = (EClass) Ifc2x3tc1Package.eINSTANCE.getEClassifier(name);
+		return eClass != null ? eClass : (EClass) GeometryPackage.eINSTANCE.getEClassifier(name);
+	}
+}
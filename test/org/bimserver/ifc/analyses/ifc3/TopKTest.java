@@ -0,0 +1,67 @@
+package org.bimserver.ifc.analyses.ifc3;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TopKTest {
+
+	@Test
+	public void keepsTheBestInOrder() {
+		Random random = new Random(7);
+		for (int k : new int[] { 0, 1, 5, 100, 1000 }) {
+			TopK top = new TopK(k);
+			List<long[]> all = new ArrayList<>();
+			for (int oid = 0; oid < 3000; oid++) {
+				// Few distinct values, so many ties are ranked by oid
+				long value = random.nextInt(200);
+				top.offer(value, oid);
+				all.add(new long[] { value, oid });
+			}
+			Collections.sort(all, (a, b) -> a[0] != b[0] ? Long.compare(b[0], a[0]) : Long.compare(a[1], b[1]));
+
+			int[] indexes = top.sortedIndexes();
+			assertEquals(Math.min(k, all.size()), indexes.length);
+			for (int i = 0; i < indexes.length; i++) {
+				assertEquals(all.get(i)[0], (long) top.getValue(indexes[i]));
+				assertEquals(all.get(i)[1], top.getOid(indexes[i]));
+			}
+		}
+	}
+
+	@Test
+	public void mergeEqualsSingleHeap() {
+		TopK single = new TopK(50);
+		TopK merged = new TopK(50);
+		TopK part = new TopK(50);
+		for (int oid = 0; oid < 1000; oid++) {
+			double value = (oid * 7919) % 1000;
+			single.offer(value, oid);
+			(oid < 500 ? merged : part).offer(value, oid);
+		}
+		merged.merge(part);
+		int[] expected = single.sortedIndexes();
+		int[] actual = merged.sortedIndexes();
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(single.getOid(expected[i]), merged.getOid(actual[i]));
+		}
+	}
+
+	@Test
+	public void clampsK() {
+		Map<String, Object> settings = new HashMap<>();
+		settings.put(AnalysesConfiguration.TOP_K, Long.MAX_VALUE);
+		assertEquals(AnalysesConfiguration.MAX_TOP_K, new AnalysesConfiguration(AnalysesConfiguration.createPluginConfiguration(settings)).getTopK());
+		settings.put(AnalysesConfiguration.TOP_K, (long) Integer.MAX_VALUE + 1);
+		assertEquals(AnalysesConfiguration.MAX_TOP_K, new AnalysesConfiguration(AnalysesConfiguration.createPluginConfiguration(settings)).getTopK());
+		settings.put(AnalysesConfiguration.TOP_K, -1L);
+		assertEquals(0, new AnalysesConfiguration(AnalysesConfiguration.createPluginConfiguration(settings)).getTopK());
+	}
+}